@@ -10,8 +10,53 @@ Prints out the solution if found.
 
 Command-line options:
 -loadfile <initial input file> [-savefile <solution output file>]
--strategy <depth | breadth | best>
+-strategy <depth | breadth | best | conflict | auto | beam | deepening>
+  [-model <cost model file>] [-switchthreshold <expansions>]
+  [-beamwidth <width>]
 -repeatcheck <true | false>
+-symmetrycheck <true | false>
+-enumerate <solutions output file> [-maxsolutions <count>]
+  [-parallel <true | false>]
+-checkpoint <snapshot file> [-checkpointinterval <expansions>]
+  (depth, breadth and best only)
+-resume <snapshot file>
+
+With -enumerate, all solutions are streamed to the output file,
+one per line as 81 digits in row order, instead of searching
+for a single solution.
+
+The conflict strategy solves the puzzle as a satisfiability problem,
+learning from dead ends and backjumping (see SudokuConflictSolver).
+
+The auto strategy measures the puzzle after the first deduction pass
+and picks the strategy and repeat checks predicted to be fastest by a
+cost model (see SudokuCostModel), calibrated offline and optionally
+loaded from a model file. If the chosen search passes the switch
+threshold expansions, it changes to the conflict strategy. Symmetry
+checks are left to -symmetrycheck: only with it on does the model
+consider the best-first search with symmetry checks.
+
+The beam and deepening strategies bound memory. Beam search keeps only
+the beam width most valuable states at each depth. Iterative deepening
+searches depth-first from the puzzle, branching on the cell with the
+fewest choices, with a depth limit that grows until the search is
+complete, so it keeps only the current path. If the beam empties
+without a solution, iterative deepening completes the search. Neither
+keeps an open list, so they ignore the repeat checks.
+
+With -symmetrycheck, states equivalent under the symmetries of the
+puzzle clues (digit relabelling, band, stack, row and column
+permutations, and transposition) are treated as repeats.
+
+With -checkpoint, a snapshot of the search (open and closed lists and
+expansion count) is written in the background every checkpoint
+interval expansions. -resume continues a search from its snapshot,
+in place of -loadfile, -strategy and the repeat checks, and keeps
+checkpointing to the same file unless -checkpoint is given. Only the
+depth, breadth and best strategies keep an open list to snapshot;
+-checkpoint is rejected with the others, including auto, whose trial
+search is kept short by the switch threshold and whose conflict search
+keeps its own trail.
 
 File format (example):
 
@@ -34,20 +79,39 @@ import java.io.*;
 
 import java.util.*;
 
+import java.util.concurrent.*;
+
+import java.util.function.*;
+
+import java.util.stream.*;
+
 
 public class Sudoku {
     // Search strategy.
     static final int DEPTH = 0;
     static final int BREADTH = 1;
     static final int BEST = 2;
+    static final int CONFLICT = 3;
+    static final int AUTO = 4;
+    static final int BEAM = 5;
+    static final int DEEPENING = 6;
 
     // Command-line options.
-    static final String Usage = "sudoku -loadfile <initial input file> [-savefile <solution output file>]\n\t-strategy <depth | breadth | best> -repeatcheck <true | false>";
+    static final String Usage = "sudoku -loadfile <initial input file> [-savefile <solution output file>]\n\t-strategy <depth | breadth | best | conflict | auto | beam | deepening> -repeatcheck <true | false>\n\t[-model <cost model file>] [-switchthreshold <expansions>] [-beamwidth <width>]\n\t[-symmetrycheck <true | false>]\n\t[-enumerate <solutions output file> [-maxsolutions <count>] [-parallel <true | false>]]\n\t[-checkpoint <snapshot file> [-checkpointinterval <expansions>]] (depth, breadth and best only)\n\t[-resume <snapshot file>]";
     int Strategy;
 
     // Prevent repeated states?
     boolean RepeatCheck;
 
+    // Prevent states equivalent under puzzle symmetries?
+    boolean SymmetryCheck;
+
+    // Puzzle symmetries.
+    SudokuSymmetry Symmetry;
+
+    // Canonical keys of expanded states.
+    HashSet SymmetrySeen;
+
     // Open list.
     Vector OpenList;
 
@@ -57,6 +121,26 @@ public class Sudoku {
     // Count of expanded states.
     int ExpandCount;
 
+    // Expansion limit (0=none), and was it reached?
+    int ExpandLimit;
+    boolean LimitReached;
+
+    // Cost model for the auto strategy.
+    SudokuCostModel Model;
+
+    // Expansions before the auto strategy switches to conflict search.
+    int SwitchThreshold;
+
+    // Configuration chosen by the auto strategy, and did it switch?
+    String AutoChoice;
+    boolean AutoSwitched;
+
+    // States kept at each depth by beam search.
+    int BeamWidth;
+
+    // Did iterative deepening stop at its depth limit?
+    boolean DepthCutoff;
+
     // Grid of possible values.
     boolean[][][] Maybe;
 
@@ -69,6 +153,32 @@ public class Sudoku {
     // Load and save files.
     String savefile;
 
+    // Solution enumeration file.
+    String enumeratefile;
+
+    // Maximum number of solutions to enumerate (0=all).
+    long maxSolutions;
+
+    // Enumerate in parallel?
+    boolean parallel;
+
+    // Initial puzzle.
+    SudokuState Puzzle;
+
+    // Checkpoint and resume files.
+    String checkpointfile;
+    String resumefile;
+
+    // Expansions between checkpoints.
+    int CheckpointInterval;
+
+    // Background checkpoint writer and its latest write.
+    ExecutorService CheckpointWriter;
+    Future<Object> CheckpointWrite;
+
+    // Closed states already in the checkpoint's closed list journal.
+    int CheckpointClosed;
+
     // Constructor
     public Sudoku(String[] args) {
         int i;
@@ -78,9 +188,16 @@ public class Sudoku {
 
         OpenList = new Vector();
         ClosedList = new Vector();
+        SymmetrySeen = new HashSet();
         Maybe = new boolean[9][9][10];
 
-        loadfile = savefile = null;
+        loadfile = savefile = enumeratefile = null;
+        checkpointfile = resumefile = null;
+        CheckpointInterval = 10000;
+        SwitchThreshold = 200;
+        BeamWidth = 10;
+        maxSolutions = 0;
+        parallel = false;
         gotStrategy = gotRepeatCheck = false;
         commandlineUse = true;
 
@@ -125,6 +242,14 @@ public class Sudoku {
                     Strategy = BREADTH;
                 } else if (args[i].equals("best")) {
                     Strategy = BEST;
+                } else if (args[i].equals("conflict")) {
+                    Strategy = CONFLICT;
+                } else if (args[i].equals("auto")) {
+                    Strategy = AUTO;
+                } else if (args[i].equals("beam")) {
+                    Strategy = BEAM;
+                } else if (args[i].equals("deepening")) {
+                    Strategy = DEEPENING;
                 } else {
                     System.err.println("Invalid search strategy option");
                     System.err.println(Usage);
@@ -159,10 +284,216 @@ public class Sudoku {
                 continue;
             }
 
+            if (args[i].equals("-symmetrycheck")) {
+                i++;
+
+                if (i >= args.length) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                if (args[i].equals("true")) {
+                    SymmetryCheck = true;
+                } else if (args[i].equals("false")) {
+                    SymmetryCheck = false;
+                } else {
+                    System.err.println("Invalid symmetrycheck option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            if (args[i].equals("-enumerate")) {
+                i++;
+
+                if (i >= args.length) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                enumeratefile = args[i];
+
+                continue;
+            }
+
+            if (args[i].equals("-maxsolutions")) {
+                i++;
+
+                if (i >= args.length) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                try {
+                    maxSolutions = Long.parseLong(args[i]);
+                } catch (NumberFormatException e) {
+                    maxSolutions = -1;
+                }
+
+                if (maxSolutions < 0) {
+                    System.err.println("Invalid maxsolutions option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            if (args[i].equals("-parallel")) {
+                i++;
+
+                if (i >= args.length) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                if (args[i].equals("true")) {
+                    parallel = true;
+                } else if (args[i].equals("false")) {
+                    parallel = false;
+                } else {
+                    System.err.println("Invalid parallel option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            if (args[i].equals("-checkpoint")) {
+                i++;
+
+                if (i >= args.length) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                checkpointfile = args[i];
+
+                continue;
+            }
+
+            if (args[i].equals("-checkpointinterval")) {
+                i++;
+
+                if (i >= args.length) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                try {
+                    CheckpointInterval = Integer.parseInt(args[i]);
+                } catch (NumberFormatException e) {
+                    CheckpointInterval = 0;
+                }
+
+                if (CheckpointInterval <= 0) {
+                    System.err.println("Invalid checkpointinterval option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            if (args[i].equals("-model")) {
+                i++;
+
+                if (i >= args.length) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                Model = SudokuCostModel.load(args[i]);
+
+                continue;
+            }
+
+            if (args[i].equals("-switchthreshold")) {
+                i++;
+
+                if (i >= args.length) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                try {
+                    SwitchThreshold = Integer.parseInt(args[i]);
+                } catch (NumberFormatException e) {
+                    SwitchThreshold = 0;
+                }
+
+                if (SwitchThreshold <= 0) {
+                    System.err.println("Invalid switchthreshold option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            if (args[i].equals("-beamwidth")) {
+                i++;
+
+                if (i >= args.length) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                try {
+                    BeamWidth = Integer.parseInt(args[i]);
+                } catch (NumberFormatException e) {
+                    BeamWidth = 0;
+                }
+
+                if (BeamWidth <= 0) {
+                    System.err.println("Invalid beamwidth option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            if (args[i].equals("-resume")) {
+                i++;
+
+                if (i >= args.length) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                resumefile = args[i];
+
+                continue;
+            }
+
             System.err.println(Usage);
             System.exit(1);
         }
 
+        // Enumeration does not use a search strategy.
+        if (enumeratefile != null) {
+            gotStrategy = gotRepeatCheck = true;
+        }
+
+        // A resumed search takes its puzzle and settings from the snapshot.
+        if (resumefile != null) {
+            if (enumeratefile != null) {
+                System.err.println(Usage);
+                System.exit(1);
+            }
+
+            loadfile = resumefile;
+            gotStrategy = gotRepeatCheck = true;
+
+            if (checkpointfile == null) {
+                checkpointfile = resumefile;
+            }
+        }
+
         try {
             BufferedReader stdin = new BufferedReader(new InputStreamReader(
                         System.in));
@@ -177,7 +508,7 @@ public class Sudoku {
             if (!gotStrategy) {
                 commandlineUse = false;
                 System.out.print(
-                    "Enter search strategy (depth, breadth, best): ");
+                    "Enter search strategy (depth, breadth, best, conflict, auto, beam, deepening): ");
                 buf = stdin.readLine();
 
                 if (buf.equals("depth")) {
@@ -186,6 +517,14 @@ public class Sudoku {
                     Strategy = BREADTH;
                 } else if (buf.equals("best")) {
                     Strategy = BEST;
+                } else if (buf.equals("conflict")) {
+                    Strategy = CONFLICT;
+                } else if (buf.equals("auto")) {
+                    Strategy = AUTO;
+                } else if (buf.equals("beam")) {
+                    Strategy = BEAM;
+                } else if (buf.equals("deepening")) {
+                    Strategy = DEEPENING;
                 } else {
                     System.err.println("Invalid search strategy");
                     System.exit(1);
@@ -194,6 +533,21 @@ public class Sudoku {
                 gotStrategy = true;
             }
 
+            // Only open list searches can be checkpointed.
+            if ((checkpointfile != null) && (resumefile == null) &&
+                    (enumeratefile == null) && (Strategy != DEPTH) &&
+                    (Strategy != BREADTH) && (Strategy != BEST)) {
+                System.err.println(
+                    "Only depth, breadth and best searches can be checkpointed");
+                System.err.println(Usage);
+                System.exit(1);
+            }
+
+            // The auto strategy chooses its own repeat checks.
+            if (Strategy == AUTO) {
+                gotRepeatCheck = true;
+            }
+
             if (!gotRepeatCheck) {
                 commandlineUse = false;
                 System.out.print("Prevent repeating states (y|n)?: ");
@@ -213,6 +567,21 @@ public class Sudoku {
         }
     }
 
+    // Constructor for programmatic use.
+    Sudoku(int strategy, boolean repeatCheck) {
+        Strategy = strategy;
+        RepeatCheck = repeatCheck;
+        OpenList = new Vector();
+        ClosedList = new Vector();
+        SymmetrySeen = new HashSet();
+        Maybe = new boolean[9][9][10];
+        loadfile = savefile = enumeratefile = null;
+        checkpointfile = resumefile = null;
+        SwitchThreshold = 200;
+        BeamWidth = 10;
+        commandlineUse = false;
+    }
+
     // Main.
     public static void main(String[] args) {
         Sudoku sudoku = new Sudoku(args);
@@ -221,10 +590,23 @@ public class Sudoku {
 
     // Solve the puzzle.
     public void solve() {
-        String buf;
+        SudokuState state;
+
+        // Continue a checkpointed search?
+        if (resumefile != null) {
+            restore(resumefile);
+            System.out.println("Resuming puzzle:");
+            Puzzle.print();
+            System.out.println(ExpandCount + " states already expanded");
+            state = resume();
+            finishCheckpoint();
+            report(state);
+
+            return;
+        }
 
         // Load initial state.
-        SudokuState state = new SudokuState();
+        state = new SudokuState();
         state.load(loadfile);
 
         // Check the initial state.
@@ -233,14 +615,39 @@ public class Sudoku {
             System.exit(1);
         }
 
+        // Enumerate all solutions?
+        if (enumeratefile != null) {
+            System.out.println("Initial puzzle:");
+            state.print();
+            enumerate(state);
+
+            return;
+        }
+
         // Search for solution.
         System.out.println("Initial puzzle:");
         state.print();
+
+        if (SymmetryCheck) {
+            Symmetry = new SudokuSymmetry(state);
+            System.out.println(Symmetry.size() + " puzzle symmetries");
+        }
+
+        Puzzle = state.cloneState();
         OpenList.addElement(state);
+        state = search();
+        finishCheckpoint();
+        report(state);
+    }
+
+    // Report the search result.
+    void report(SudokuState state) {
+        String buf;
 
-        if ((state = search()) != null) {
+        if (state != null) {
             System.out.println("Found solution!");
             state.print();
+            reportAuto();
             System.out.println(ExpandCount + " states expanded");
 
             if (!commandlineUse && (savefile == null)) {
@@ -266,21 +673,95 @@ public class Sudoku {
             }
         } else {
             System.out.println("No solution!");
+            reportAuto();
             System.out.println(ExpandCount + " states expanded");
         }
     }
 
+    // Report the choice made by the auto strategy.
+    void reportAuto() {
+        if (AutoChoice != null) {
+            System.out.println("Auto strategy chose " + AutoChoice +
+                (AutoSwitched ? ", switched to conflict" : ""));
+        }
+    }
+
+    // Stream all solutions to the enumeration file.
+    void enumerate(SudokuState state) {
+        final long[] count = new long[1];
+        PrintWriter out = null;
+        Stream<SudokuState> solutions;
+
+        try {
+            out = new PrintWriter(new BufferedWriter(new FileWriter(
+                            enumeratefile)));
+
+            final PrintWriter writer = out;
+            solutions = SudokuSolutions.stream(state, parallel);
+
+            if (maxSolutions > 0) {
+                solutions = solutions.limit(maxSolutions);
+            }
+
+            solutions.forEach(new Consumer<SudokuState>() {
+                    public void accept(SudokuState solution) {
+                        String line = solution.toLine();
+
+                        synchronized (writer) {
+                            writer.println(line);
+                            count[0]++;
+                        }
+                    }
+                });
+
+            if (out.checkError()) {
+                throw new IOException("Write failed");
+            }
+
+            System.out.println(count[0] + " solutions written to " +
+                enumeratefile);
+        } catch (IOException e) {
+            System.err.println("Error saving file " + enumeratefile + ":" +
+                e.toString());
+            System.exit(1);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    // Search from the given state, starting with empty lists.
+    // Return the solution, or null if there is none.
+    SudokuState search(SudokuState state) {
+        OpenList.clear();
+        ClosedList.clear();
+        SymmetrySeen.clear();
+        ExpandCount = 0;
+
+        if (!state.isValid()) {
+            return null;
+        }
+
+        if (SymmetryCheck) {
+            Symmetry = new SudokuSymmetry(state);
+        }
+
+        Puzzle = state.cloneState();
+        OpenList.addElement(state.cloneState());
+
+        return search();
+    }
+
     // Search
     SudokuState search() {
-        int x;
-        int y;
-        int i;
-        int c;
+        int clues;
         SudokuState state;
-        SudokuState child;
 
         // Get initial state.
         ExpandCount = 0;
+        LimitReached = false;
+        CheckpointClosed = 0;
 
         if (OpenList.size() == 0) {
             return null;
@@ -290,6 +771,7 @@ public class Sudoku {
         OpenList.remove(0);
 
         // Deduce numbers.
+        clues = state.gridCount();
         deduce(state);
 
         // Check for solution.
@@ -297,14 +779,336 @@ public class Sudoku {
             return state;
         }
 
+        // Choose the strategy from the deduced puzzle.
+        if (Strategy == AUTO) {
+            return autoSearch(clues, state);
+        }
+
+        // Conflict-driven search keeps its own trail.
+        if (Strategy == CONFLICT) {
+            SudokuConflictSolver solver = new SudokuConflictSolver(state);
+            state = solver.solve();
+            ExpandCount = solver.decisions;
+
+            return state;
+        }
+
+        return searchFrom(state);
+    }
+
+    // Search from the deduced initial state with the strategy's engine.
+    SudokuState searchFrom(SudokuState state) {
+        // Memory-bounded searches keep no open list.
+        if (Strategy == BEAM) {
+            return beamSearch(state);
+        }
+
+        if (Strategy == DEEPENING) {
+            return deepeningSearch(state);
+        }
+
+        return expand(state);
+    }
+
+    // Search with the configuration predicted to be fastest,
+    // switching to conflict search past the switch threshold.
+    SudokuState autoSearch(int clues, SudokuState state) {
+        int config;
+        boolean repeatCheck = RepeatCheck;
+        String savedCheckpointfile = checkpointfile;
+        SudokuSymmetry symmetry;
+        SudokuState solution;
+
+        if (Model == null) {
+            Model = new SudokuCostModel();
+        }
+
+        // Symmetry checks stay as the user set them; configurations
+        // that need them are only considered when they are on.
+        symmetry = new SudokuSymmetry(state);
+        config = Model.choose(SudokuCostModel.features(clues, state,
+                    symmetry), SymmetryCheck);
+        AutoChoice = SudokuCostModel.NAMES[config];
+        AutoSwitched = false;
+        Strategy = SudokuCostModel.STRATEGIES[config];
+        RepeatCheck = SudokuCostModel.REPEAT_CHECKS[config];
+
+        // The symmetries found for the features serve the search too.
+        if (SymmetryCheck) {
+            Symmetry = symmetry;
+        }
+
+        // A snapshot of the trial would resume without the switch.
+        checkpointfile = null;
+
+        if (Strategy != CONFLICT) {
+            ExpandLimit = SwitchThreshold;
+            solution = searchFrom(state);
+            ExpandLimit = 0;
+
+            if ((solution != null) || !LimitReached) {
+                state = null;
+            }
+        } else {
+            solution = null;
+        }
+
+        // Conflict search from the deduced puzzle.
+        if (state != null) {
+            AutoSwitched = (Strategy != CONFLICT);
+            LimitReached = false;
+            SudokuConflictSolver solver = new SudokuConflictSolver(state);
+            solution = solver.solve();
+            ExpandCount += solver.decisions;
+        }
+
+        Strategy = AUTO;
+        RepeatCheck = repeatCheck;
+        checkpointfile = savedCheckpointfile;
+
+        return solution;
+    }
+
+    // Beam search from the given deduced state, keeping the most
+    // valuable states at each depth. Complete the search with
+    // iterative deepening if the beam empties.
+    SudokuState beamSearch(SudokuState state) {
+        int i;
+        int x;
+        int y;
+        int n;
+        int c;
+        SudokuState child;
+        SudokuState[] level = { state };
+        PriorityQueue<SudokuState> beam;
+
+        while (level.length > 0) {
+            // Least valuable state first, to be replaced.
+            beam = new PriorityQueue<SudokuState>(BeamWidth,
+                    new Comparator<SudokuState>() {
+                        public int compare(SudokuState a, SudokuState b) {
+                            return Double.compare(a.getValue(), b.getValue());
+                        }
+                    });
+
+            for (i = 0; i < level.length; i++) {
+                // Stop at the expansion limit.
+                if ((ExpandLimit > 0) && (ExpandCount >= ExpandLimit)) {
+                    LimitReached = true;
+
+                    return null;
+                }
+
+                ExpandCount++;
+
+                for (y = 0; y < 9; y++) {
+                    for (x = 0; x < 9; x++) {
+                        // Count number of possible choices for this cell.
+                        for (n = 1, c = 0; n <= 9; n++) {
+                            if (level[i].placeOK(x, y, n)) {
+                                c++;
+                            }
+                        }
+
+                        for (n = 1; n <= 9; n++) {
+                            if (!level[i].placeOK(x, y, n)) {
+                                continue;
+                            }
+
+                            child = level[i].cloneState();
+                            child.setNum(x, y, n);
+                            deduce(child);
+
+                            // Check for solution.
+                            if (child.gridCount() == 81) {
+                                return child;
+                            }
+
+                            // Drop dead ends.
+                            if (branchCell(child) == -1) {
+                                continue;
+                            }
+
+                            child.setValue(((double) child.gridCount() * 10.0) +
+                                (double) (9 - c));
+
+                            // Keep if among the most valuable.
+                            if ((beam.size() == BeamWidth) &&
+                                    (child.getValue() <= beam.peek().getValue())) {
+                                continue;
+                            }
+
+                            if (inBeam(beam, child)) {
+                                continue;
+                            }
+
+                            if (beam.size() == BeamWidth) {
+                                beam.poll();
+                            }
+
+                            beam.add(child);
+                        }
+                    }
+                }
+            }
+
+            level = beam.toArray(new SudokuState[beam.size()]);
+        }
+
+        return deepeningSearch(state);
+    }
+
+    // Is a duplicate of the state in the beam?
+    boolean inBeam(PriorityQueue<SudokuState> beam, SudokuState state) {
+        for (SudokuState member : beam) {
+            if (member.isDuplicate(state)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Iterative deepening from the given deduced state, raising the
+    // depth limit until a pass finds a solution or is not cut off.
+    SudokuState deepeningSearch(SudokuState state) {
+        int limit;
+        SudokuState solution;
+
+        for (limit = 1;; limit++) {
+            DepthCutoff = false;
+            solution = deepen(state, limit);
+
+            if ((solution != null) || LimitReached || !DepthCutoff) {
+                return solution;
+            }
+        }
+    }
+
+    // Depth-limited search branching on the cell with fewest choices.
+    SudokuState deepen(SudokuState state, int limit) {
+        int i;
+        int n;
+        SudokuState child;
+        SudokuState solution;
+
+        if ((i = branchCell(state)) == -1) {
+            return null;
+        }
+
+        if (limit == 0) {
+            DepthCutoff = true;
+
+            return null;
+        }
+
+        // Stop at the expansion limit.
+        if ((ExpandLimit > 0) && (ExpandCount >= ExpandLimit)) {
+            LimitReached = true;
+
+            return null;
+        }
+
+        ExpandCount++;
+
+        for (n = 1; n <= 9; n++) {
+            if (!state.placeOK(i % 9, i / 9, n)) {
+                continue;
+            }
+
+            child = state.cloneState();
+            child.setNum(i % 9, i / 9, n);
+            deduce(child);
+
+            // Check for solution.
+            if (child.gridCount() == 81) {
+                return child;
+            }
+
+            if (((solution = deepen(child, limit - 1)) != null) ||
+                    LimitReached) {
+                return solution;
+            }
+        }
+
+        return null;
+    }
+
+    // Empty cell with the fewest choices, as x + y * 9,
+    // or -1 if an empty cell has none.
+    int branchCell(SudokuState state) {
+        int x;
+        int y;
+        int n;
+        int c;
+        int min = 10;
+        int cell = -1;
+
+        for (y = 0; y < 9; y++) {
+            for (x = 0; x < 9; x++) {
+                if (state.getNum(x, y) != 0) {
+                    continue;
+                }
+
+                for (n = 1, c = 0; n <= 9; n++) {
+                    if (state.placeOK(x, y, n)) {
+                        c++;
+                    }
+                }
+
+                if (c == 0) {
+                    return -1;
+                }
+
+                if (c < min) {
+                    min = c;
+                    cell = x + (y * 9);
+                }
+            }
+        }
+
+        return cell;
+    }
+
+    // Continue a restored search.
+    SudokuState resume() {
+        SudokuState state;
+
+        if ((state = next()) == null) {
+            return null;
+        }
+
+        return expand(state);
+    }
+
+    // Expand states from the given one until a solution is found
+    // or there are no states left.
+    SudokuState expand(SudokuState state) {
+        int x;
+        int y;
+        int i;
+        int c;
+        SudokuState child;
+
         // While there are states to explore.
         while (true) {
+            // Stop at the expansion limit.
+            if ((ExpandLimit > 0) && (ExpandCount >= ExpandLimit)) {
+                LimitReached = true;
+
+                return null;
+            }
+
             // Increment expansion count.
             ExpandCount++;
 
             // Put on closed list.
             ClosedList.addElement(state);
 
+            if (SymmetryCheck) {
+                SymmetrySeen.add(symmetryKey(state));
+            }
+
             // Expand the state.
             for (y = 0; y < 9; y++) {
                 for (x = 0; x < 9; x++) {
@@ -341,13 +1145,144 @@ public class Sudoku {
                 }
             }
 
+            // Checkpoint periodically, between expansions.
+            if ((checkpointfile != null) &&
+                    ((ExpandCount % CheckpointInterval) == 0)) {
+                checkpoint();
+            }
+
             // Get next state to expand.
+            if ((state = next()) == null) {
+                return null;
+            }
+        }
+    }
+
+    // Take the next state to expand from the open list, skipping states
+    // equivalent to ones already expanded.
+    // Return null if the open list is empty.
+    SudokuState next() {
+        SudokuState state;
+
+        do {
             if (OpenList.size() == 0) {
                 return null;
             }
 
             state = (SudokuState) OpenList.elementAt(0);
             OpenList.remove(0);
+        } while (SymmetryCheck &&
+            SymmetrySeen.contains(symmetryKey(state)));
+
+        return state;
+    }
+
+    // Write a snapshot of the search in the background, between
+    // expansions. Listed states are not modified, so copying the lists
+    // is enough to decouple the snapshot.
+    void checkpoint() {
+        Vector open;
+        Vector closed;
+        final SudokuCheckpoint snapshot;
+
+        // Skip if the previous snapshot is still being written.
+        if (CheckpointWrite != null) {
+            if (!CheckpointWrite.isDone()) {
+                return;
+            }
+
+            checkCheckpoint();
+        }
+
+        open = new Vector(OpenList);
+
+        // Only closed states not yet in the journal are copied.
+        closed = (RepeatCheck || SymmetryCheck)
+            ? new Vector(ClosedList.subList(CheckpointClosed, ClosedList.size()))
+            : new Vector();
+        snapshot = new SudokuCheckpoint(Strategy, RepeatCheck,
+                SymmetryCheck, ExpandCount, Puzzle, open,
+                CheckpointClosed, closed);
+        CheckpointClosed += closed.size();
+
+        if (CheckpointWriter == null) {
+            CheckpointWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "checkpoint");
+                            thread.setDaemon(true);
+
+                            return thread;
+                        }
+                    });
+        }
+
+        CheckpointWrite = CheckpointWriter.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        snapshot.save(checkpointfile);
+
+                        return null;
+                    }
+                });
+    }
+
+    // Wait for the latest checkpoint write to finish.
+    void finishCheckpoint() {
+        if (CheckpointWrite != null) {
+            checkCheckpoint();
+            CheckpointWrite = null;
+        }
+
+        if (CheckpointWriter != null) {
+            CheckpointWriter.shutdown();
+            CheckpointWriter = null;
+        }
+    }
+
+    // Report a failed checkpoint write; the search carries on,
+    // rewriting the whole closed list journal next time.
+    void checkCheckpoint() {
+        try {
+            CheckpointWrite.get();
+        } catch (Exception e) {
+            System.err.println("Error saving checkpoint " + checkpointfile +
+                ":" + e.toString());
+            CheckpointClosed = 0;
+        }
+    }
+
+    // Restore a search from a checkpoint.
+    void restore(String filename) {
+        int i;
+        SudokuCheckpoint snapshot = null;
+
+        try {
+            snapshot = SudokuCheckpoint.load(filename);
+        } catch (IOException e) {
+            System.err.println("Error loading checkpoint " + filename + ":" +
+                e.toString());
+            System.exit(1);
+        }
+
+        Strategy = snapshot.strategy;
+        RepeatCheck = snapshot.repeatCheck;
+        SymmetryCheck = snapshot.symmetryCheck;
+        ExpandCount = snapshot.expandCount;
+        Puzzle = snapshot.puzzle;
+        OpenList = snapshot.openList;
+        ClosedList = snapshot.closedList;
+        SymmetrySeen.clear();
+
+        // Checkpointing to the same file continues its journal.
+        CheckpointClosed = filename.equals(checkpointfile) ? ClosedList.size()
+                                                           : 0;
+
+        if (SymmetryCheck) {
+            Symmetry = new SudokuSymmetry(Puzzle);
+
+            for (i = 0; i < ClosedList.size(); i++) {
+                SymmetrySeen.add(symmetryKey(
+                        (SudokuState) ClosedList.elementAt(i)));
+            }
         }
     }
 
@@ -555,8 +1490,24 @@ public class Sudoku {
         }
     }
 
+    // Canonical key of a state under the puzzle symmetries,
+    // computed once per state.
+    String symmetryKey(SudokuState state) {
+        if (state.key == null) {
+            state.key = Symmetry.canonical(state);
+        }
+
+        return state.key;
+    }
+
     // State is repeating?
     boolean repeat(SudokuState state) {
+        // Equivalent to a seen state under the puzzle symmetries?
+        if (SymmetryCheck &&
+                SymmetrySeen.contains(symmetryKey(state))) {
+            return true;
+        }
+
         if (!RepeatCheck) {
             return false;
         }
@@ -0,0 +1,391 @@
+/*
+
+Solve a corpus of Sudoku puzzles with bit-sliced propagation.
+
+Up to 64 puzzles are held at once, one per bit of a long, with a
+candidate word for each cell and number. Naked and hidden singles are
+propagated for all of them together with bitwise operations; puzzles
+that still need search after propagation are finished one at a time
+by depth-first search from their propagated state.
+
+Command-line options:
+-puzzles <puzzles file> -savefile <solutions output file>
+[-threads <number of threads>]
+
+The puzzles file holds one puzzle per line as 81 cells in row order
+(0 or . for empty). Each solution is written on the matching line of
+the output file, or "No solution".
+
+*/
+package sudoku;
+
+import java.io.*;
+
+import java.util.*;
+
+import java.util.concurrent.*;
+
+
+public class SudokuBatch {
+    // Puzzles per batch.
+    static final int LANES = 64;
+
+    // Batches read per pass.
+    static final int PASS_BATCHES = 256;
+
+    // Command-line options.
+    static final String Usage = "sudokubatch -puzzles <puzzles file> -savefile <solutions output file>\n\t[-threads <number of threads>]";
+
+    // Candidate lanes by cell and number: (cell * 9) + number - 1.
+    long[] candidates;
+
+    // Lanes in which each cell is decided.
+    long[] assigned;
+
+    // Lanes in use, and those found to have no solution.
+    long live;
+    long dead;
+
+    // Statistics.
+    long propagated;
+    long searched;
+    long unsolvable;
+
+    // Constructor.
+    SudokuBatch() {
+        candidates = new long[81 * 9];
+        assigned = new long[81];
+    }
+
+    // Main.
+    public static void main(String[] args) {
+        int i;
+        int threads;
+        String puzzlesfile;
+        String savefile;
+
+        puzzlesfile = savefile = null;
+        threads = 1;
+
+        for (i = 0; i < args.length; i++) {
+            if (args[i].equals("-puzzles") && ((i + 1) < args.length)) {
+                puzzlesfile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-savefile") && ((i + 1) < args.length)) {
+                savefile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-threads") && ((i + 1) < args.length)) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
+
+                if (threads < 1) {
+                    System.err.println("Invalid threads option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        if ((puzzlesfile == null) || (savefile == null)) {
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        solveCorpus(puzzlesfile, savefile, threads);
+    }
+
+    // Solve a corpus of puzzles, writing solutions in corpus order.
+    static void solveCorpus(String puzzlesfile, String savefile, int threads) {
+        int i;
+        int n;
+        long count;
+        long propagated;
+        long searched;
+        long unsolvable;
+        long time;
+        String s;
+        SudokuState state;
+        BufferedReader in = null;
+        PrintWriter out = null;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Vector<Future<SudokuBatch>> batches = new Vector<Future<SudokuBatch>>();
+        final SudokuState[] puzzles = new SudokuState[LANES * PASS_BATCHES];
+        final SudokuState[] solutions = new SudokuState[LANES * PASS_BATCHES];
+
+        count = propagated = searched = unsolvable = 0;
+        time = System.currentTimeMillis();
+
+        try {
+            in = new BufferedReader(new FileReader(puzzlesfile));
+            out = new PrintWriter(new BufferedWriter(new FileWriter(savefile)));
+
+            do {
+                // Read a pass of puzzles.
+                for (n = 0; n < puzzles.length;) {
+                    if ((s = in.readLine()) == null) {
+                        break;
+                    }
+
+                    if (s.trim().length() == 0) {
+                        continue;
+                    }
+
+                    if ((state = SudokuState.parseLine(s)) == null) {
+                        throw new IOException("Invalid puzzle: " + s);
+                    }
+
+                    puzzles[n++] = state;
+                }
+
+                // Solve it a batch per task.
+                batches.clear();
+
+                for (i = 0; i < n; i += LANES) {
+                    final int first = i;
+                    final int last = Math.min(i + LANES, n);
+
+                    batches.addElement(executor.submit(new Callable<SudokuBatch>() {
+                                public SudokuBatch call() {
+                                    SudokuBatch batch = new SudokuBatch();
+                                    batch.solve(puzzles, solutions, first,
+                                        last);
+
+                                    return batch;
+                                }
+                            }));
+                }
+
+                for (Future<SudokuBatch> f : batches) {
+                    SudokuBatch batch = f.get();
+                    propagated += batch.propagated;
+                    searched += batch.searched;
+                    unsolvable += batch.unsolvable;
+                }
+
+                for (i = 0; i < n; i++) {
+                    if (solutions[i] != null) {
+                        out.println(solutions[i].toLine());
+                    } else {
+                        out.println("No solution");
+                    }
+                }
+
+                count += n;
+            } while (n == puzzles.length);
+
+            if (out.checkError()) {
+                throw new IOException("Write failed");
+            }
+        } catch (Exception e) {
+            System.err.println("Error solving file " + puzzlesfile + ":" +
+                e.toString());
+            System.exit(1);
+        } finally {
+            executor.shutdown();
+
+            if (out != null) {
+                out.close();
+            }
+
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (Exception e) {
+            }
+        }
+
+        System.out.println(count + " puzzles: " + propagated +
+            " solved by propagation, " + searched + " by search, " +
+            unsolvable + " without solution");
+        System.out.println((System.currentTimeMillis() - time) + " ms");
+    }
+
+    // Solve puzzles[first] to puzzles[last - 1] into solutions,
+    // storing null for puzzles without a solution.
+    void solve(SudokuState[] puzzles, SudokuState[] solutions, int first,
+        int last) {
+        int lane;
+        int cell;
+        int n;
+        long bit;
+        SudokuState state;
+
+        load(puzzles, first, last);
+        propagate();
+
+        for (lane = 0; lane < (last - first); lane++) {
+            bit = 1L << lane;
+            state = null;
+
+            if ((dead & bit) == 0) {
+                state = new SudokuState();
+
+                for (cell = 0; cell < 81; cell++) {
+                    if ((assigned[cell] & bit) == 0) {
+                        continue;
+                    }
+
+                    for (n = 0; n < 9; n++) {
+                        if ((candidates[(cell * 9) + n] & bit) != 0) {
+                            state.grid[cell] = (char) (n + 1);
+                        }
+                    }
+                }
+
+                if (state.gridCount() == 81) {
+                    propagated++;
+                } else {
+                    // Finish by search.
+                    state = SudokuSolutions.stream(state, false).findFirst()
+                                           .orElse(null);
+
+                    if (state != null) {
+                        searched++;
+                    }
+                }
+            }
+
+            if (state == null) {
+                unsolvable++;
+            }
+
+            solutions[first + lane] = state;
+        }
+    }
+
+    // Load puzzles into the lanes.
+    void load(SudokuState[] puzzles, int first, int last) {
+        int lane;
+        int cell;
+        int n;
+        long bit;
+
+        Arrays.fill(candidates, 0L);
+        Arrays.fill(assigned, 0L);
+        live = dead = 0;
+
+        for (lane = 0; lane < (last - first); lane++) {
+            bit = 1L << lane;
+            live |= bit;
+
+            if (!puzzles[first + lane].isValid()) {
+                dead |= bit;
+            }
+
+            for (cell = 0; cell < 81; cell++) {
+                n = puzzles[first + lane].grid[cell];
+
+                for (int m = 1; m <= 9; m++) {
+                    if ((n == 0) || (n == m)) {
+                        candidates[(cell * 9) + m - 1] |= bit;
+                    }
+                }
+            }
+        }
+    }
+
+    // Propagate naked and hidden singles in all lanes.
+    void propagate() {
+        int cell;
+        int unit;
+        int j;
+        int n;
+        int m;
+        int base;
+        long one;
+        long two;
+        long c;
+        long single;
+        long hit;
+        boolean changed = true;
+        int[] peers;
+
+        while (changed) {
+            changed = false;
+
+            // Cells with one candidate are decided, removing
+            // their number from their peers.
+            for (cell = 0; cell < 81; cell++) {
+                base = cell * 9;
+                one = two = 0;
+
+                for (n = 0; n < 9; n++) {
+                    c = candidates[base + n];
+                    two |= (one & c);
+                    one |= c;
+                }
+
+                dead |= (live & ~one);
+                single = one & ~two & ~assigned[cell] & live & ~dead;
+
+                if (single == 0) {
+                    continue;
+                }
+
+                assigned[cell] |= single;
+                changed = true;
+                peers = SudokuState.PEERS[cell];
+
+                for (n = 0; n < 9; n++) {
+                    if ((hit = single & candidates[base + n]) == 0) {
+                        continue;
+                    }
+
+                    for (j = 0; j < peers.length; j++) {
+                        candidates[(peers[j] * 9) + n] &= ~hit;
+                    }
+                }
+            }
+
+            // A number with one place in a unit goes there.
+            for (unit = 0; unit < 27; unit++) {
+                for (n = 0; n < 9; n++) {
+                    one = two = 0;
+
+                    for (j = 0; j < 9; j++) {
+                        c = candidates[(SudokuState.UNITS[unit][j] * 9) + n];
+                        two |= (one & c);
+                        one |= c;
+                    }
+
+                    dead |= (live & ~one);
+                    single = one & ~two & live & ~dead;
+
+                    if (single == 0) {
+                        continue;
+                    }
+
+                    for (j = 0; j < 9; j++) {
+                        base = SudokuState.UNITS[unit][j] * 9;
+
+                        if ((hit = single & candidates[base + n]) == 0) {
+                            continue;
+                        }
+
+                        for (m = 0; m < 9; m++) {
+                            if ((m != n) && ((candidates[base + m] & hit) != 0)) {
+                                candidates[base + m] &= ~hit;
+                                changed = true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
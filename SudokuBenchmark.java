@@ -0,0 +1,710 @@
+/*
+
+End-to-end performance regression benchmark for the Sudoku solvers.
+
+Every search configuration (see SudokuCostModel), the auto strategy,
+depth and breadth searches with -repeatcheck, solution enumeration
+(see SudokuSolutions, up to MAX_SOLUTIONS solutions) and the batch
+solver (see SudokuBatch, one puzzle per batch) are run on every puzzle
+of tiered corpora, recording wall time, states expanded (solutions
+for enumeration, none for the batch solver), peak heap and bytes
+allocated. Results can be
+saved as a baseline and later runs compared against it; any
+configuration that regresses past the threshold is listed with its
+baseline and current values, and the benchmark exits with status 1.
+It also exits with status 1 if any run is wrong.
+
+Command-line options:
+[-dir <puzzle directory>] [-tier <name> <puzzle file>[,<puzzle file>...]]
+[-maxexpand <expansion limit per run>] [-warmup <runs>]
+[-savefile <results output file>]
+[-baseline <results file> [-threshold <ratio>]]
+
+Default tiers, from the puzzle directory:
+easy: sudoku_9-7-2005.txt, sudoku_9-8-2005.txt, sudoku_9-9-2005.txt
+hard: sudoku_difficult.txt
+sparse: sudoku_searchable.txt, sudoku_empty.txt
+symmetric: sudoku_symmetric.txt
+
+Any -tier option replaces the defaults. A puzzle file holds a single
+puzzle in the 9-line Sudoku format, or one puzzle per line as 81
+cells in row order (0 or . for empty).
+
+Searches cut off at the expansion limit are reported as "limit" rather
+than timed to completion. Each puzzle is first solved with the conflict
+strategy for reference; a run that returns a wrong solution, or none
+for a puzzle the reference solves, is "wrong". A run regresses if its
+outcome gets worse, if it is wrong, or if its time, expansions, peak heap
+or allocation grow by more than the threshold ratio (default 1.5)
+over the baseline, ignoring growth below a small floor.
+
+*/
+package sudoku;
+
+import java.io.*;
+
+import java.lang.management.*;
+
+import java.util.*;
+
+
+public class SudokuBenchmark {
+    // Run outcomes, best first.
+    static final String[] OUTCOMES = { "solved", "nosolution", "limit", "wrong" };
+
+    // Configurations beyond the cost model's.
+    static final String[] EXTRA_NAMES = {
+            "auto", "depth-repeat", "breadth-repeat", "enumerate", "batch"
+        };
+    static final int AUTO = SudokuCostModel.NAMES.length;
+    static final int DEPTH_REPEAT = AUTO + 1;
+    static final int BREADTH_REPEAT = AUTO + 2;
+    static final int ENUMERATE = AUTO + 3;
+    static final int BATCH = AUTO + 4;
+    static final int CONFIGS = AUTO + EXTRA_NAMES.length;
+
+    // Most solutions enumerated per run.
+    static final int MAX_SOLUTIONS = 100;
+
+    // Growth below these floors is not a regression.
+    static final double TIME_FLOOR = 20.0;
+    static final long EXPAND_FLOOR = 10;
+    static final long BYTES_FLOOR = 1024 * 1024;
+
+    // Command-line options.
+    static final String Usage = "sudokubenchmark [-dir <puzzle directory>] [-tier <name> <puzzle file>[,<puzzle file>...]]\n\t[-maxexpand <expansion limit per run>] [-warmup <runs>]\n\t[-savefile <results output file>]\n\t[-baseline <results file> [-threshold <ratio>]]";
+
+    // Tier names and their puzzle files.
+    Vector<String> tierNames;
+    Vector<String[]> tierFiles;
+
+    // Expansion limit per run.
+    int maxExpand;
+
+    // Warm-up runs of the whole suite.
+    int warmup;
+
+    // Regression threshold ratio.
+    double threshold;
+
+    // Results by key, in run order.
+    LinkedHashMap<String, Result> results;
+
+    // Wrong results in the measured pass.
+    int wrong;
+
+    // One benchmark run.
+    static class Result {
+        String key;
+        String outcome;
+        double time;
+        long expansions;
+        long peakHeap;
+        long allocated;
+
+        Result(String key, String outcome, double time, long expansions,
+            long peakHeap, long allocated) {
+            this.key = key;
+            this.outcome = outcome;
+            this.time = time;
+            this.expansions = expansions;
+            this.peakHeap = peakHeap;
+            this.allocated = allocated;
+        }
+
+        // Results file line.
+        String toLine() {
+            return key + " " + outcome + " " +
+            (Math.round(time * 1000.0) / 1000.0) + " " + expansions + " " +
+            peakHeap + " " + allocated;
+        }
+
+        // Parse a results file line, or return null.
+        static Result parseLine(String line) {
+            String[] fields = line.trim().split("\\s+");
+
+            if (fields.length != 6) {
+                return null;
+            }
+
+            try {
+                return new Result(fields[0], fields[1],
+                    Double.parseDouble(fields[2]), Long.parseLong(fields[3]),
+                    Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    // Main.
+    public static void main(String[] args) {
+        int i;
+        String dir;
+        String savefile;
+        String baselinefile;
+        SudokuBenchmark benchmark = new SudokuBenchmark();
+
+        dir = ".";
+        savefile = baselinefile = null;
+
+        for (i = 0; i < args.length; i++) {
+            if (args[i].equals("-dir") && ((i + 1) < args.length)) {
+                dir = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-tier") && ((i + 2) < args.length)) {
+                benchmark.tierNames.addElement(args[++i]);
+                benchmark.tierFiles.addElement(args[++i].split(","));
+
+                continue;
+            }
+
+            if (args[i].equals("-maxexpand") && ((i + 1) < args.length)) {
+                benchmark.maxExpand = parseCount(args[++i], "maxexpand", 1);
+
+                continue;
+            }
+
+            if (args[i].equals("-warmup") && ((i + 1) < args.length)) {
+                benchmark.warmup = parseCount(args[++i], "warmup", 0);
+
+                continue;
+            }
+
+            if (args[i].equals("-savefile") && ((i + 1) < args.length)) {
+                savefile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-baseline") && ((i + 1) < args.length)) {
+                baselinefile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-threshold") && ((i + 1) < args.length)) {
+                try {
+                    benchmark.threshold = Double.parseDouble(args[++i]);
+                } catch (NumberFormatException e) {
+                    benchmark.threshold = 0.0;
+                }
+
+                if (benchmark.threshold < 1.0) {
+                    System.err.println("Invalid threshold option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        if (benchmark.tierNames.size() == 0) {
+            benchmark.addDefaultTiers(dir);
+        } else if (!dir.equals(".")) {
+            benchmark.prefixTiers(dir);
+        }
+
+        benchmark.run();
+
+        if (savefile != null) {
+            benchmark.save(savefile);
+        }
+
+        if ((baselinefile != null) && !benchmark.compare(baselinefile)) {
+            System.exit(1);
+        }
+
+        // Wrong results fail the run even without a baseline.
+        if (benchmark.wrong > 0) {
+            System.out.println(benchmark.wrong + " wrong results");
+            System.exit(1);
+        }
+    }
+
+    // Constructor.
+    SudokuBenchmark() {
+        tierNames = new Vector<String>();
+        tierFiles = new Vector<String[]>();
+        maxExpand = 500;
+        warmup = 1;
+        threshold = 1.5;
+        results = new LinkedHashMap<String, Result>();
+    }
+
+    // Parse a count option with the given minimum.
+    static int parseCount(String arg, String option, int min) {
+        int count;
+
+        try {
+            count = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            count = -1;
+        }
+
+        if (count < min) {
+            System.err.println("Invalid " + option + " option");
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        return count;
+    }
+
+    // Add the bundled puzzle tiers.
+    void addDefaultTiers(String dir) {
+        tierNames.addElement("easy");
+        tierFiles.addElement(new String[] {
+                "sudoku_9-7-2005.txt", "sudoku_9-8-2005.txt",
+                "sudoku_9-9-2005.txt"
+            });
+        tierNames.addElement("hard");
+        tierFiles.addElement(new String[] { "sudoku_difficult.txt" });
+        tierNames.addElement("sparse");
+        tierFiles.addElement(new String[] {
+                "sudoku_searchable.txt", "sudoku_empty.txt"
+            });
+        tierNames.addElement("symmetric");
+        tierFiles.addElement(new String[] { "sudoku_symmetric.txt" });
+        prefixTiers(dir);
+    }
+
+    // Resolve tier puzzle files against the puzzle directory.
+    void prefixTiers(String dir) {
+        for (int i = 0; i < tierFiles.size(); i++) {
+            String[] files = tierFiles.elementAt(i);
+
+            for (int j = 0; j < files.length; j++) {
+                if (!new File(files[j]).isAbsolute()) {
+                    files[j] = new File(dir, files[j]).getPath();
+                }
+            }
+        }
+    }
+
+    // Load the puzzles of a file, in either format.
+    static Vector<SudokuState> loadPuzzles(String filename) {
+        String s;
+        StringBuffer grid = new StringBuffer();
+        SudokuState puzzle;
+        Vector<SudokuState> puzzles = new Vector<SudokuState>();
+        BufferedReader in = null;
+
+        try {
+            in = new BufferedReader(new FileReader(filename));
+
+            while ((s = in.readLine()) != null) {
+                s = s.trim();
+
+                if (s.length() == 0) {
+                    continue;
+                }
+
+                // One puzzle per line, or 9 lines per puzzle.
+                if (s.length() >= 81) {
+                    puzzle = SudokuState.parseLine(s);
+                } else {
+                    grid.append(s.length() > 9 ? s.substring(0, 9) : s);
+
+                    if (grid.length() < 81) {
+                        continue;
+                    }
+
+                    puzzle = SudokuState.parseLine(grid.toString());
+                    grid.setLength(0);
+                }
+
+                if (puzzle == null) {
+                    throw new IOException("Invalid puzzle: " + s);
+                }
+
+                puzzles.addElement(puzzle);
+            }
+
+            if (grid.length() > 0) {
+                throw new IOException("Unexpected EOF");
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading file " + filename + ":" +
+                e.toString());
+            System.exit(1);
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (Exception e) {
+            }
+        }
+
+        return puzzles;
+    }
+
+    // Run all configurations on all tiers, after the warm-up runs.
+    void run() {
+        int i;
+        int j;
+        int k;
+        int config;
+        int pass;
+        String name;
+        String key;
+        String[] files;
+        Vector<SudokuState> puzzles;
+        SudokuState puzzle;
+        boolean solvable;
+        Result result;
+
+        for (pass = 0; pass <= warmup; pass++) {
+            results.clear();
+            wrong = 0;
+
+            for (i = 0; i < tierNames.size(); i++) {
+                files = tierFiles.elementAt(i);
+
+                for (j = 0; j < files.length; j++) {
+                    puzzles = loadPuzzles(files[j]);
+                    name = new File(files[j]).getName();
+
+                    for (k = 0; k < puzzles.size(); k++) {
+                        // Reference solve.
+                        puzzle = puzzles.elementAt(k);
+                        solvable = (new Sudoku(Sudoku.CONFLICT, false).search(puzzle) != null);
+
+                        for (config = 0; config < CONFIGS; config++) {
+                            key = tierNames.elementAt(i) + "/" + name +
+                                ((puzzles.size() > 1) ? ("#" + (k + 1)) : "") +
+                                "/" + configName(config);
+                            result = measure(key, puzzle, solvable, config);
+                            results.put(key, result);
+
+                            if (result.outcome.equals("wrong")) {
+                                wrong++;
+                            }
+
+                            if (pass == warmup) {
+                                System.out.println(result.toLine());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Configuration name: the cost model's, then the extra ones.
+    static String configName(int config) {
+        if (config >= AUTO) {
+            return EXTRA_NAMES[config - AUTO];
+        }
+
+        return SudokuCostModel.NAMES[config];
+    }
+
+    // Time one configuration on one puzzle.
+    Result measure(String key, SudokuState puzzle, boolean solvable,
+        int config) {
+        int i;
+        long time;
+        long allocated;
+        long peakHeap;
+        long expansions;
+        String outcome;
+        Sudoku sudoku;
+        SudokuState[] solutions;
+
+        if (config == AUTO) {
+            sudoku = new Sudoku(Sudoku.AUTO, false);
+        } else if (config == DEPTH_REPEAT) {
+            sudoku = new Sudoku(Sudoku.DEPTH, true);
+        } else if (config == BREADTH_REPEAT) {
+            sudoku = new Sudoku(Sudoku.BREADTH, true);
+        } else if (config < AUTO) {
+            sudoku = new Sudoku(SudokuCostModel.STRATEGIES[config],
+                    SudokuCostModel.REPEAT_CHECKS[config]);
+            sudoku.SymmetryCheck = SudokuCostModel.SYMMETRY_CHECKS[config];
+        } else {
+            sudoku = null;
+        }
+
+        if ((sudoku != null) && (config != AUTO)) {
+            sudoku.ExpandLimit = maxExpand;
+        }
+
+        // Start each run from a collected heap.
+        System.gc();
+        resetPeakHeap();
+        allocated = allocatedBytes();
+        time = System.nanoTime();
+
+        if (config == ENUMERATE) {
+            solutions = SudokuSolutions.stream(puzzle, false)
+                                       .limit(MAX_SOLUTIONS)
+                                       .toArray(SudokuState[]::new);
+        } else if (config == BATCH) {
+            solutions = new SudokuState[1];
+            new SudokuBatch().solve(new SudokuState[] { puzzle }, solutions,
+                0, 1);
+        } else {
+            solutions = new SudokuState[] { sudoku.search(puzzle) };
+        }
+
+        time = System.nanoTime() - time;
+        allocated = allocatedBytes() - allocated;
+        peakHeap = peakHeap();
+
+        if (config == ENUMERATE) {
+            expansions = solutions.length;
+        } else if (config == BATCH) {
+            expansions = 0;
+        } else {
+            expansions = sudoku.ExpandCount;
+        }
+
+        if ((solutions.length == 0) || (solutions[0] == null)) {
+            if ((sudoku != null) && sudoku.LimitReached) {
+                outcome = "limit";
+            } else {
+                outcome = solvable ? "wrong" : "nosolution";
+            }
+        } else {
+            outcome = "solved";
+
+            for (i = 0; i < solutions.length; i++) {
+                if (!isSolution(puzzle, solutions[i])) {
+                    outcome = "wrong";
+                }
+            }
+        }
+
+        return new Result(key, outcome, time / 1000000.0, expansions,
+            peakHeap, allocated);
+    }
+
+    // Is the state a complete solution of the puzzle?
+    static boolean isSolution(SudokuState puzzle, SudokuState solution) {
+        int x;
+        int y;
+
+        if ((solution.gridCount() != 81) || !solution.isValid()) {
+            return false;
+        }
+
+        for (y = 0; y < 9; y++) {
+            for (x = 0; x < 9; x++) {
+                if ((puzzle.getNum(x, y) != 0) &&
+                        (puzzle.getNum(x, y) != solution.getNum(x, y))) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    // Reset the peak usage of the heap memory pools.
+    static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // Sum of the peak usage of the heap memory pools.
+    static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ((pool.getType() == MemoryType.HEAP) &&
+                    (pool.getPeakUsage() != null)) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return peak;
+    }
+
+    // Bytes allocated by this thread so far, or 0 if not supported.
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            long bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread()
+                                                                                                   .getId());
+
+            if (bytes >= 0) {
+                return bytes;
+            }
+        }
+
+        return 0;
+    }
+
+    // Save results.
+    void save(String filename) {
+        PrintWriter out = null;
+
+        try {
+            out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+            out.println(
+                "# tier/puzzle/configuration outcome milliseconds expansions peak-heap-bytes allocated-bytes");
+            for (Result result : results.values()) {
+                out.println(result.toLine());
+            }
+
+            if (out.checkError()) {
+                throw new IOException("Write failed");
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving file " + filename + ":" +
+                e.toString());
+            System.exit(1);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    // Load results.
+    static LinkedHashMap<String, Result> load(String filename) {
+        String s;
+        Result result;
+        LinkedHashMap<String, Result> baseline = new LinkedHashMap<String, Result>();
+        BufferedReader in = null;
+
+        try {
+            in = new BufferedReader(new FileReader(filename));
+
+            while ((s = in.readLine()) != null) {
+                if ((s.trim().length() == 0) || s.startsWith("#")) {
+                    continue;
+                }
+
+                if ((result = Result.parseLine(s)) == null) {
+                    throw new IOException("Invalid results line: " + s);
+                }
+
+                baseline.put(result.key, result);
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading file " + filename + ":" +
+                e.toString());
+            System.exit(1);
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (Exception e) {
+            }
+        }
+
+        return baseline;
+    }
+
+    // Compare results with the baseline, listing regressions.
+    // Return true if there are none.
+    boolean compare(String baselinefile) {
+        int regressions = 0;
+        Result base;
+        LinkedHashMap<String, Result> baseline = load(baselinefile);
+
+        for (Result result : results.values()) {
+            if ((base = baseline.get(result.key)) == null) {
+                System.out.println("NEW        " + result.key);
+
+                continue;
+            }
+
+            if (result.outcome.equals("wrong") ||
+                    (outcomeRank(result.outcome) > outcomeRank(base.outcome))) {
+                regressions += report(result.key, "outcome", base.outcome,
+                    result.outcome, "");
+            }
+
+            if (result.time > Math.max(base.time * threshold,
+                        base.time + TIME_FLOOR)) {
+                regressions += report(result.key, "time",
+                    (Math.round(base.time * 10.0) / 10.0) + "ms",
+                    (Math.round(result.time * 10.0) / 10.0) + "ms",
+                    growth(base.time, result.time));
+            }
+
+            if (result.expansions > Math.max(base.expansions * threshold,
+                        base.expansions + EXPAND_FLOOR)) {
+                regressions += report(result.key, "expansions",
+                    "" + base.expansions, "" + result.expansions,
+                    growth(base.expansions, result.expansions));
+            }
+
+            if (result.peakHeap > Math.max(base.peakHeap * threshold,
+                        base.peakHeap + BYTES_FLOOR)) {
+                regressions += report(result.key, "peak heap",
+                    (base.peakHeap / 1024) + "K", (result.peakHeap / 1024) + "K",
+                    growth(base.peakHeap, result.peakHeap));
+            }
+
+            if (result.allocated > Math.max(base.allocated * threshold,
+                        base.allocated + BYTES_FLOOR)) {
+                regressions += report(result.key, "allocated",
+                    (base.allocated / 1024) + "K",
+                    (result.allocated / 1024) + "K",
+                    growth(base.allocated, result.allocated));
+            }
+        }
+
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.println("MISSING    " + key);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " regressions over threshold " +
+                threshold);
+
+            return false;
+        }
+
+        System.out.println("No regressions over threshold " + threshold);
+
+        return true;
+    }
+
+    // Print a regression line.
+    static int report(String key, String metric, String base, String current,
+        String growth) {
+        System.out.println("REGRESSION " + key + " " + metric + ": " + base +
+            " -> " + current + growth);
+
+        return 1;
+    }
+
+    // Percentage growth.
+    static String growth(double base, double current) {
+        if (base <= 0.0) {
+            return "";
+        }
+
+        return " (+" + Math.round(((current - base) * 100.0) / base) + "%)";
+    }
+
+    // Rank of an outcome, best first.
+    static int outcomeRank(String outcome) {
+        for (int i = 0; i < OUTCOMES.length; i++) {
+            if (OUTCOMES[i].equals(outcome)) {
+                return i;
+            }
+        }
+
+        return OUTCOMES.length;
+    }
+}
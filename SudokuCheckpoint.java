@@ -0,0 +1,222 @@
+// Snapshot of a running search.
+package sudoku;
+
+import java.io.*;
+
+import java.nio.file.*;
+
+import java.util.*;
+
+
+/*
+ * Binary layout, version 2 (big-endian):
+ *
+ * int magic, int version,
+ * int strategy, boolean repeatCheck, boolean symmetryCheck,
+ * int expandCount, grid puzzle,
+ * int open count, then per open state: grid, double value,
+ * int closed count.
+ *
+ * The closed list only grows, so it is kept in a journal file beside
+ * the snapshot (the snapshot name plus ".closed"), one grid per state.
+ * Each save appends the states closed since the previous save; the
+ * snapshot's closed count says how much of the journal belongs to it.
+ *
+ * A grid is 41 bytes holding two cells per byte in row order,
+ * the first cell of each pair in the high nibble.
+ */
+class SudokuCheckpoint {
+    // File identification.
+    static final int MAGIC = 0x5344434b;
+    static final int VERSION = 2;
+
+    // Packed grid size.
+    static final int GRID_BYTES = 41;
+
+    // Search settings.
+    int strategy;
+    boolean repeatCheck;
+    boolean symmetryCheck;
+
+    // Count of expanded states.
+    int expandCount;
+
+    // Initial puzzle.
+    SudokuState puzzle;
+
+    // Open list.
+    Vector openList;
+
+    // Closed states: when saving, those after the first closedStart
+    // already in the journal; when loaded, all of them.
+    Vector closedList;
+    int closedStart;
+
+    // Constructors.
+    SudokuCheckpoint(int strategy, boolean repeatCheck,
+        boolean symmetryCheck, int expandCount, SudokuState puzzle,
+        Vector openList, int closedStart, Vector closedList) {
+        this.strategy = strategy;
+        this.repeatCheck = repeatCheck;
+        this.symmetryCheck = symmetryCheck;
+        this.expandCount = expandCount;
+        this.puzzle = puzzle;
+        this.openList = openList;
+        this.closedStart = closedStart;
+        this.closedList = closedList;
+    }
+
+    SudokuCheckpoint() {
+        openList = new Vector();
+        closedList = new Vector();
+    }
+
+    // Save, appending new closed states to the journal first and
+    // replacing the snapshot only once it is complete.
+    void save(String filename) throws IOException {
+        int i;
+        SudokuState state;
+        Path path = Paths.get(filename);
+        Path temp = Paths.get(filename + ".tmp");
+        DataOutputStream out;
+        RandomAccessFile journal = new RandomAccessFile(filename + ".closed",
+                "rw");
+
+        try {
+            byte[] buf = new byte[closedList.size() * GRID_BYTES];
+
+            for (i = 0; i < closedList.size(); i++) {
+                packGrid((SudokuState) closedList.elementAt(i), buf,
+                    i * GRID_BYTES);
+            }
+
+            journal.seek((long) closedStart * GRID_BYTES);
+            journal.write(buf);
+            journal.setLength((long) (closedStart + closedList.size()) * GRID_BYTES);
+            journal.getFD().sync();
+        } finally {
+            journal.close();
+        }
+
+        out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp.toFile())));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strategy);
+            out.writeBoolean(repeatCheck);
+            out.writeBoolean(symmetryCheck);
+            out.writeInt(expandCount);
+            writeGrid(out, puzzle);
+            out.writeInt(openList.size());
+
+            for (i = 0; i < openList.size(); i++) {
+                state = (SudokuState) openList.elementAt(i);
+                writeGrid(out, state);
+                out.writeDouble(state.getValue());
+            }
+
+            out.writeInt(closedStart + closedList.size());
+        } finally {
+            out.close();
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Load.
+    static SudokuCheckpoint load(String filename) throws IOException {
+        int i;
+        int n;
+        SudokuState state;
+        SudokuCheckpoint checkpoint = new SudokuCheckpoint();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(filename)));
+
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file");
+            }
+
+            if ((n = in.readInt()) != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + n);
+            }
+
+            checkpoint.strategy = in.readInt();
+            checkpoint.repeatCheck = in.readBoolean();
+            checkpoint.symmetryCheck = in.readBoolean();
+            checkpoint.expandCount = in.readInt();
+            checkpoint.puzzle = readGrid(in);
+            n = in.readInt();
+
+            for (i = 0; i < n; i++) {
+                state = readGrid(in);
+                state.setValue(in.readDouble());
+                checkpoint.openList.addElement(state);
+            }
+
+            n = in.readInt();
+        } finally {
+            in.close();
+        }
+
+        // Closed states from the journal.
+        if (n > 0) {
+            in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(filename + ".closed")));
+
+            try {
+                for (i = 0; i < n; i++) {
+                    checkpoint.closedList.addElement(readGrid(in));
+                }
+            } catch (EOFException e) {
+                throw new IOException("Closed list journal is truncated");
+            } finally {
+                in.close();
+            }
+        }
+
+        return checkpoint;
+    }
+
+    // Write a grid packed two cells per byte.
+    static void writeGrid(DataOutputStream out, SudokuState state)
+        throws IOException {
+        for (int i = 0; i < 81; i += 2) {
+            out.writeByte((state.grid[i] << 4) |
+                ((i < 80) ? state.grid[i + 1] : 0));
+        }
+    }
+
+    // Pack a grid into a buffer at the given offset.
+    static void packGrid(SudokuState state, byte[] buf, int offset) {
+        for (int i = 0; i < 81; i += 2) {
+            buf[offset++] = (byte) ((state.grid[i] << 4) |
+                ((i < 80) ? state.grid[i + 1] : 0));
+        }
+    }
+
+    // Read a packed grid.
+    static SudokuState readGrid(DataInputStream in) throws IOException {
+        int b;
+        SudokuState state = new SudokuState();
+
+        for (int i = 0; i < 81; i += 2) {
+            b = in.readUnsignedByte();
+
+            if (((b >> 4) > 9) || ((b & 15) > 9)) {
+                throw new IOException("Invalid grid in checkpoint");
+            }
+
+            state.grid[i] = (char) (b >> 4);
+
+            if (i < 80) {
+                state.grid[i + 1] = (char) (b & 15);
+            }
+        }
+
+        return state;
+    }
+}
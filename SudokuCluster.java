@@ -0,0 +1,577 @@
+/*
+
+Solve a corpus of Sudoku puzzles with a coordinator and worker processes.
+
+The coordinator splits the corpus into shards and leases them to
+workers over sockets. A lease that is not completed in time, or whose
+worker disconnects, is issued again to another worker. Solutions are
+written in corpus order, and statistics are reported for each shard.
+
+Command-line options:
+-coordinator -puzzles <puzzles file> -savefile <solutions output file>
+  [-port <port>] [-shardsize <puzzles per shard>]
+  [-lease <lease timeout in milliseconds>]
+-worker [-host <coordinator host>] [-port <port>]
+  [-strategy <depth | breadth | best | conflict | auto | beam | deepening>]
+
+The puzzles file holds one puzzle per line as 81 cells in row order
+(0 or . for empty). Each solution is written on the matching line of
+the output file, or "No solution".
+
+Example on one machine:
+
+java sudoku.SudokuCluster -coordinator -puzzles corpus.txt -savefile out.txt &
+java sudoku.SudokuCluster -worker &
+java sudoku.SudokuCluster -worker &
+
+Protocol, one message per line:
+
+worker: LEASE
+coordinator: SHARD <id> <count>, followed by count puzzle lines
+           | WAIT <milliseconds> | DONE
+worker: RESULT <id> <count> <expanded> <milliseconds>,
+        followed by count solution lines
+coordinator: OK
+
+*/
+package sudoku;
+
+import java.io.*;
+
+import java.net.*;
+
+import java.util.*;
+
+
+public class SudokuCluster {
+    // Defaults.
+    static final int DEFAULT_PORT = 7171;
+    static final int DEFAULT_SHARD_SIZE = 100;
+    static final long DEFAULT_LEASE = 30000;
+
+    // Worker wait when all shards are leased.
+    static final long WAIT_TIME = 500;
+
+    // Command-line options.
+    static final String Usage = "sudokucluster -coordinator -puzzles <puzzles file> -savefile <solutions output file>\n\t[-port <port>] [-shardsize <puzzles per shard>] [-lease <lease timeout in milliseconds>]\n   | -worker [-host <coordinator host>] [-port <port>]\n\t[-strategy <depth | breadth | best | conflict | auto | beam | deepening>]";
+
+    // Corpus and output.
+    BufferedReader in;
+    PrintWriter out;
+    String puzzlesfile;
+    boolean corpusDone;
+
+    // Shard settings.
+    int shardSize;
+    long leaseTime;
+
+    // Next shard to read, and next to write.
+    int nextShard;
+    int nextWrite;
+
+    // Shards leased by id, shards to issue again,
+    // and completed shards waiting to be written.
+    HashMap<Integer, Shard> leased;
+    LinkedList<Shard> reissue;
+    TreeMap<Integer, String[]> completed;
+
+    // Totals.
+    long puzzleCount;
+    long expandCount;
+    long workerTime;
+    int reissueCount;
+
+    // Corpus shard.
+    static class Shard {
+        int id;
+        String[] puzzles;
+        String worker;
+        long deadline;
+
+        Shard(int id, String[] puzzles) {
+            this.id = id;
+            this.puzzles = puzzles;
+        }
+    }
+
+    // Coordinator constructor.
+    SudokuCluster(String puzzlesfile, String savefile, int shardSize,
+        long leaseTime) throws IOException {
+        this.puzzlesfile = puzzlesfile;
+        this.shardSize = shardSize;
+        this.leaseTime = leaseTime;
+        in = new BufferedReader(new FileReader(puzzlesfile));
+        out = new PrintWriter(new BufferedWriter(new FileWriter(savefile)));
+        corpusDone = false;
+        nextShard = nextWrite = 0;
+        leased = new HashMap<Integer, Shard>();
+        reissue = new LinkedList<Shard>();
+        completed = new TreeMap<Integer, String[]>();
+        puzzleCount = expandCount = workerTime = 0;
+        reissueCount = 0;
+    }
+
+    // Main.
+    public static void main(String[] args) {
+        int i;
+        int port;
+        int shardSize;
+        int strategy;
+        long leaseTime;
+        boolean coordinator;
+        boolean worker;
+        String host;
+        String puzzlesfile;
+        String savefile;
+
+        coordinator = worker = false;
+        host = "localhost";
+        port = DEFAULT_PORT;
+        shardSize = DEFAULT_SHARD_SIZE;
+        leaseTime = DEFAULT_LEASE;
+        strategy = Sudoku.CONFLICT;
+        puzzlesfile = savefile = null;
+
+        try {
+            for (i = 0; i < args.length; i++) {
+                if (args[i].equals("-coordinator")) {
+                    coordinator = true;
+                } else if (args[i].equals("-worker")) {
+                    worker = true;
+                } else if (args[i].equals("-puzzles") &&
+                        ((i + 1) < args.length)) {
+                    puzzlesfile = args[++i];
+                } else if (args[i].equals("-savefile") &&
+                        ((i + 1) < args.length)) {
+                    savefile = args[++i];
+                } else if (args[i].equals("-host") && ((i + 1) < args.length)) {
+                    host = args[++i];
+                } else if (args[i].equals("-port") && ((i + 1) < args.length)) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-shardsize") &&
+                        ((i + 1) < args.length)) {
+                    shardSize = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-lease") &&
+                        ((i + 1) < args.length)) {
+                    leaseTime = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-strategy") &&
+                        ((i + 1) < args.length)) {
+                    i++;
+
+                    if (args[i].equals("depth")) {
+                        strategy = Sudoku.DEPTH;
+                    } else if (args[i].equals("breadth")) {
+                        strategy = Sudoku.BREADTH;
+                    } else if (args[i].equals("best")) {
+                        strategy = Sudoku.BEST;
+                    } else if (args[i].equals("conflict")) {
+                        strategy = Sudoku.CONFLICT;
+                    } else if (args[i].equals("auto")) {
+                        strategy = Sudoku.AUTO;
+                    } else if (args[i].equals("beam")) {
+                        strategy = Sudoku.BEAM;
+                    } else if (args[i].equals("deepening")) {
+                        strategy = Sudoku.DEEPENING;
+                    } else {
+                        throw new IllegalArgumentException(
+                            "Invalid search strategy option");
+                    }
+                } else {
+                    throw new IllegalArgumentException("Invalid option " +
+                        args[i]);
+                }
+            }
+
+            if ((port <= 0) || (shardSize <= 0) || (leaseTime <= 0)) {
+                throw new IllegalArgumentException("Invalid option value");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        if (coordinator == worker) {
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        try {
+            if (coordinator) {
+                if ((puzzlesfile == null) || (savefile == null)) {
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                new SudokuCluster(puzzlesfile, savefile, shardSize, leaseTime).coordinate(port);
+            } else {
+                work(host, port, strategy);
+            }
+        } catch (IOException e) {
+            System.err.println("Cluster error:" + e.toString());
+            System.exit(1);
+        }
+    }
+
+    // Run the coordinator until the corpus is solved.
+    void coordinate(int port) throws IOException {
+        long time = System.currentTimeMillis();
+        final ServerSocket server = new ServerSocket(port);
+
+        System.out.println("Coordinator listening on port " + port);
+
+        // Serve each worker connection on its own thread.
+        Thread acceptor = new Thread() {
+                public void run() {
+                    while (true) {
+                        try {
+                            final Socket socket = server.accept();
+
+                            Thread handler = new Thread() {
+                                    public void run() {
+                                        serve(socket);
+                                    }
+                                };
+
+                            handler.setDaemon(true);
+                            handler.start();
+                        } catch (IOException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        // Wait for all shards, reclaiming expired leases.
+        synchronized (this) {
+            while (!isDone()) {
+                try {
+                    wait(WAIT_TIME);
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                reclaim();
+            }
+        }
+
+        // Let workers see that the run is done.
+        try {
+            Thread.sleep(WAIT_TIME * 2);
+        } catch (InterruptedException e) {
+        }
+
+        server.close();
+        out.close();
+
+        if (out.checkError()) {
+            throw new IOException("Write failed");
+        }
+
+        System.out.println(puzzleCount + " puzzles in " + nextWrite +
+            " shards, " + reissueCount + " reissued, " + expandCount +
+            " states expanded, " + workerTime + " ms worker time, " +
+            (System.currentTimeMillis() - time) + " ms");
+    }
+
+    // Serve a worker connection.
+    void serve(Socket socket) {
+        int i;
+        int id;
+        int count;
+        long expanded;
+        long millis;
+        String worker;
+        String line;
+        String[] fields;
+        String[] results;
+        Shard shard;
+        BufferedReader from = null;
+        PrintWriter to = null;
+
+        worker = socket.getRemoteSocketAddress().toString();
+
+        try {
+            from = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream()));
+            to = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                            socket.getOutputStream())));
+
+            while ((line = from.readLine()) != null) {
+                fields = line.split(" ");
+
+                if (fields[0].equals("LEASE")) {
+                    if ((shard = lease(worker)) != null) {
+                        to.println("SHARD " + shard.id + " " +
+                            shard.puzzles.length);
+
+                        for (i = 0; i < shard.puzzles.length; i++) {
+                            to.println(shard.puzzles[i]);
+                        }
+                    } else if (isDone()) {
+                        to.println("DONE");
+                    } else {
+                        to.println("WAIT " + WAIT_TIME);
+                    }
+                } else if (fields[0].equals("RESULT") && (fields.length == 5)) {
+                    id = Integer.parseInt(fields[1]);
+                    count = Integer.parseInt(fields[2]);
+                    expanded = Long.parseLong(fields[3]);
+                    millis = Long.parseLong(fields[4]);
+                    results = new String[count];
+
+                    for (i = 0; i < count; i++) {
+                        if ((results[i] = from.readLine()) == null) {
+                            throw new IOException("Unexpected EOF");
+                        }
+                    }
+
+                    complete(id, results, expanded, millis, worker);
+                    to.println("OK");
+                } else {
+                    throw new IOException("Invalid message: " + line);
+                }
+
+                to.flush();
+            }
+        } catch (Exception e) {
+            System.err.println("Worker " + worker + ": " + e.toString());
+        } finally {
+            release(worker);
+
+            try {
+                socket.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    // Lease the next shard to a worker, or return null if none is ready.
+    synchronized Shard lease(String worker) throws IOException {
+        int n;
+        String s;
+        Shard shard;
+        Vector<String> puzzles;
+
+        reclaim();
+
+        if (!reissue.isEmpty()) {
+            shard = reissue.removeFirst();
+        } else if (!corpusDone) {
+            puzzles = new Vector<String>();
+
+            while ((puzzles.size() < shardSize) &&
+                    ((s = in.readLine()) != null)) {
+                if (s.trim().length() > 0) {
+                    puzzles.addElement(s.trim());
+                }
+            }
+
+            if (puzzles.size() < shardSize) {
+                corpusDone = true;
+                in.close();
+            }
+
+            if (puzzles.isEmpty()) {
+                notifyAll();
+
+                return null;
+            }
+
+            shard = new Shard(nextShard++, puzzles.toArray(new String[0]));
+        } else {
+            return null;
+        }
+
+        shard.worker = worker;
+        shard.deadline = System.currentTimeMillis() + leaseTime;
+        leased.put(shard.id, shard);
+
+        return shard;
+    }
+
+    // Record a completed shard and write the shards now in order.
+    synchronized void complete(int id, String[] results, long expanded,
+        long millis, String worker) {
+        Shard shard = leased.get(id);
+
+        // Ignore results for shards already done.
+        if ((id < nextWrite) || completed.containsKey(id)) {
+            return;
+        }
+
+        if ((shard != null) && (shard.puzzles.length != results.length)) {
+            System.err.println("Worker " + worker + ": wrong count for shard " +
+                id);
+
+            return;
+        }
+
+        if (shard == null) {
+            // Lease lost to a timeout; accept if still waiting to be issued.
+            for (Shard s : reissue) {
+                if (s.id == id) {
+                    shard = s;
+                }
+            }
+
+            if ((shard == null) || (shard.puzzles.length != results.length)) {
+                return;
+            }
+
+            reissue.remove(shard);
+        }
+
+        leased.remove(id);
+        completed.put(id, results);
+        puzzleCount += results.length;
+        expandCount += expanded;
+        workerTime += millis;
+        System.out.println("Shard " + id + ": " + results.length +
+            " puzzles, " + expanded + " states expanded, " + millis +
+            " ms, worker " + worker);
+
+        while (completed.containsKey(nextWrite)) {
+            for (String line : completed.remove(nextWrite)) {
+                out.println(line);
+            }
+
+            nextWrite++;
+        }
+
+        notifyAll();
+    }
+
+    // Issue the shards of a disconnected worker again.
+    synchronized void release(String worker) {
+        Iterator<Shard> shards = leased.values().iterator();
+
+        while (shards.hasNext()) {
+            Shard shard = shards.next();
+
+            if (shard.worker.equals(worker)) {
+                shards.remove();
+                reissue.addLast(shard);
+                reissueCount++;
+            }
+        }
+
+        notifyAll();
+    }
+
+    // Issue expired leases again.
+    synchronized void reclaim() {
+        long now = System.currentTimeMillis();
+        Iterator<Shard> shards = leased.values().iterator();
+
+        while (shards.hasNext()) {
+            Shard shard = shards.next();
+
+            if (shard.deadline < now) {
+                shards.remove();
+                reissue.addLast(shard);
+                reissueCount++;
+            }
+        }
+    }
+
+    // Is the whole corpus written?
+    synchronized boolean isDone() {
+        return corpusDone && leased.isEmpty() && reissue.isEmpty() &&
+        completed.isEmpty() && (nextWrite == nextShard);
+    }
+
+    // Run a worker until the coordinator is done.
+    static void work(String host, int port, int strategy)
+        throws IOException {
+        int i;
+        int id;
+        int count;
+        long expanded;
+        long time;
+        String line;
+        String[] fields;
+        String[] results;
+        SudokuState state;
+        Sudoku sudoku = new Sudoku(strategy, false);
+        Socket socket = new Socket(host, port);
+        BufferedReader from = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream()));
+        PrintWriter to = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream())));
+
+        try {
+            while (true) {
+                to.println("LEASE");
+                to.flush();
+
+                if ((line = from.readLine()) == null) {
+                    throw new IOException("Coordinator closed connection");
+                }
+
+                fields = line.split(" ");
+
+                if (fields[0].equals("DONE")) {
+                    break;
+                }
+
+                if (fields[0].equals("WAIT")) {
+                    try {
+                        Thread.sleep(Long.parseLong(fields[1]));
+                    } catch (InterruptedException e) {
+                    }
+
+                    continue;
+                }
+
+                if (!fields[0].equals("SHARD") || (fields.length != 3)) {
+                    throw new IOException("Invalid message: " + line);
+                }
+
+                // Solve the shard.
+                id = Integer.parseInt(fields[1]);
+                count = Integer.parseInt(fields[2]);
+                results = new String[count];
+                expanded = 0;
+                time = System.currentTimeMillis();
+
+                for (i = 0; i < count; i++) {
+                    if ((line = from.readLine()) == null) {
+                        throw new IOException("Unexpected EOF");
+                    }
+
+                    if ((state = SudokuState.parseLine(line)) != null) {
+                        state = sudoku.search(state);
+                        expanded += sudoku.ExpandCount;
+                    }
+
+                    results[i] = (state != null) ? state.toLine()
+                                                 : "No solution";
+                }
+
+                time = System.currentTimeMillis() - time;
+                to.println("RESULT " + id + " " + count + " " + expanded +
+                    " " + time);
+
+                for (i = 0; i < count; i++) {
+                    to.println(results[i]);
+                }
+
+                to.flush();
+
+                if (!"OK".equals(from.readLine())) {
+                    throw new IOException("Result not acknowledged");
+                }
+
+                System.out.println("Shard " + id + ": " + count +
+                    " puzzles, " + expanded + " states expanded, " + time +
+                    " ms");
+            }
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,517 @@
+// Conflict-driven Sudoku solver.
+package sudoku;
+
+import java.util.*;
+
+
+/*
+ * Solves the puzzle as a satisfiability problem over the 729 variables
+ * "cell holds number", in the manner of a CDCL SAT solver: unit
+ * propagation over watched literals, a nogood learned from the first
+ * unique implication point of each conflict, backjumping to the
+ * assignment the nogood depends on, variable activity that decays over
+ * time, and restarts on the Luby sequence.
+ *
+ * Literals are 2 * variable for "cell holds number" and
+ * 2 * variable + 1 for its negation, where variable is
+ * ((x + (y * 9)) * 9) + number - 1.
+ */
+class SudokuConflictSolver {
+    // Conflicts before the first restart.
+    static final int RESTART_BASE = 100;
+
+    // Activity decay per conflict.
+    static final double DECAY = 0.95;
+
+    // Puzzle.
+    SudokuState puzzle;
+
+    // Clauses; learned clauses follow the problem clauses.
+    Vector clauses;
+    int problemClauses;
+
+    // Watched clauses for each literal.
+    int[][] watches;
+    int[] watchCount;
+
+    // Assignment: -1=unassigned, 0=false, 1=true.
+    int[] value;
+
+    // Decision level and reason clause (-1=none) of each variable.
+    int[] level;
+    int[] reason;
+
+    // Variable activity.
+    double[] activity;
+    double activityInc;
+
+    // Assigned literals in order, and where each decision level starts.
+    int[] trail;
+    int trailSize;
+    int[] trailLim;
+    int decisionLevel;
+
+    // Next trail literal to propagate.
+    int qhead;
+
+    // Variables marked during conflict analysis.
+    boolean[] seen;
+
+    // Statistics.
+    int decisions;
+    int conflicts;
+    int restarts;
+    long propagations;
+
+    // Constructor.
+    SudokuConflictSolver(SudokuState puzzle) {
+        int i;
+
+        this.puzzle = puzzle;
+        clauses = new Vector();
+        watches = new int[729 * 2][];
+        watchCount = new int[729 * 2];
+
+        for (i = 0; i < watches.length; i++) {
+            watches[i] = new int[16];
+        }
+
+        value = new int[729];
+        level = new int[729];
+        reason = new int[729];
+        activity = new double[729];
+        activityInc = 1.0;
+        trail = new int[729];
+        trailLim = new int[730];
+        seen = new boolean[729];
+
+        for (i = 0; i < 729; i++) {
+            value[i] = -1;
+            reason[i] = -1;
+        }
+
+        trailSize = decisionLevel = qhead = 0;
+        decisions = conflicts = restarts = 0;
+        propagations = 0;
+
+        addConstraints();
+        problemClauses = clauses.size();
+    }
+
+    // Solve the puzzle.
+    // Return the solution, or null if there is none.
+    SudokuState solve() {
+        int i;
+        int v;
+        int confl;
+        int restartLimit;
+        int restartCount;
+        int sinceRestart;
+        int[] learnt;
+        SudokuState state;
+
+        // Assign the clues.
+        for (i = 0; i < 81; i++) {
+            if (puzzle.grid[i] > 0) {
+                if (!enqueue(2 * ((i * 9) + puzzle.grid[i] - 1), -1)) {
+                    return null;
+                }
+            }
+        }
+
+        restartCount = 1;
+        restartLimit = RESTART_BASE * luby(restartCount);
+        sinceRestart = 0;
+
+        while (true) {
+            if ((confl = propagate()) >= 0) {
+                conflicts++;
+                sinceRestart++;
+
+                if (decisionLevel == 0) {
+                    return null;
+                }
+
+                // Learn a nogood and backjump to where it becomes unit.
+                learnt = analyze(confl);
+                cancelUntil((learnt.length > 1) ? level[learnt[1] >> 1] : 0);
+
+                if (learnt.length == 1) {
+                    enqueue(learnt[0], -1);
+                } else {
+                    enqueue(learnt[0], addClause(learnt));
+                }
+
+                activityInc /= DECAY;
+
+                continue;
+            }
+
+            // Restart, keeping learned nogoods and activities.
+            if (sinceRestart >= restartLimit) {
+                restarts++;
+                restartLimit = RESTART_BASE * luby(++restartCount);
+                sinceRestart = 0;
+                cancelUntil(0);
+
+                continue;
+            }
+
+            // Decide on the most active unassigned variable.
+            if ((v = pickBranch()) < 0) {
+                break;
+            }
+
+            decisions++;
+            trailLim[decisionLevel++] = trailSize;
+            enqueue(2 * v, -1);
+        }
+
+        // Read the solution.
+        state = new SudokuState();
+
+        for (v = 0; v < 729; v++) {
+            if (value[v] == 1) {
+                state.grid[v / 9] = (char) ((v % 9) + 1);
+            }
+        }
+
+        return state;
+    }
+
+    // Add the Sudoku constraints as clauses.
+    void addConstraints() {
+        int i;
+        int j;
+        int n;
+        int unit;
+        int[] vars = new int[9];
+
+        // Each cell holds exactly one number.
+        for (i = 0; i < 81; i++) {
+            for (n = 0; n < 9; n++) {
+                vars[n] = (i * 9) + n;
+            }
+
+            exactlyOne(vars);
+        }
+
+        // Each unit holds each number exactly once.
+        for (unit = 0; unit < 27; unit++) {
+            for (n = 0; n < 9; n++) {
+                for (j = 0; j < 9; j++) {
+                    vars[j] = (SudokuState.UNITS[unit][j] * 9) + n;
+                }
+
+                exactlyOne(vars);
+            }
+        }
+    }
+
+    // Add clauses making exactly one of the variables true.
+    void exactlyOne(int[] vars) {
+        int i;
+        int j;
+        int[] clause = new int[vars.length];
+
+        for (i = 0; i < vars.length; i++) {
+            clause[i] = 2 * vars[i];
+        }
+
+        addClause(clause);
+
+        for (i = 0; i < vars.length; i++) {
+            for (j = i + 1; j < vars.length; j++) {
+                addClause(new int[] { (2 * vars[i]) + 1, (2 * vars[j]) + 1 });
+            }
+        }
+    }
+
+    // Add a clause watching its first two literals.
+    // Return the clause index.
+    int addClause(int[] clause) {
+        int c = clauses.size();
+
+        clauses.addElement(clause);
+        watch(clause[0], c);
+        watch(clause[1], c);
+
+        return c;
+    }
+
+    // Watch a literal in a clause.
+    void watch(int lit, int c) {
+        if (watchCount[lit] == watches[lit].length) {
+            watches[lit] = Arrays.copyOf(watches[lit], watches[lit].length * 2);
+        }
+
+        watches[lit][watchCount[lit]++] = c;
+    }
+
+    // Value of a literal: -1=unassigned, 0=false, 1=true.
+    int litValue(int lit) {
+        int v = value[lit >> 1];
+
+        return (v < 0) ? -1 : (v ^ (lit & 1));
+    }
+
+    // Make a literal true with the given reason clause.
+    // Return false if it is already false.
+    boolean enqueue(int lit, int from) {
+        int v = lit >> 1;
+
+        if (value[v] >= 0) {
+            return litValue(lit) == 1;
+        }
+
+        value[v] = (lit & 1) ^ 1;
+        level[v] = decisionLevel;
+        reason[v] = from;
+        trail[trailSize++] = lit;
+
+        return true;
+    }
+
+    // Propagate assignments through the watched clauses.
+    // Return a conflicting clause, or -1 if there is no conflict.
+    int propagate() {
+        int i;
+        int j;
+        int k;
+        int c;
+        int p;
+        int n;
+        int falseLit;
+        int[] list;
+        int[] clause;
+
+        while (qhead < trailSize) {
+            p = trail[qhead++];
+            falseLit = p ^ 1;
+            list = watches[falseLit];
+            n = watchCount[falseLit];
+            propagations++;
+
+            for (i = j = 0; i < n; i++) {
+                c = list[i];
+                clause = (int[]) clauses.elementAt(c);
+
+                // Keep the false literal second.
+                if (clause[0] == falseLit) {
+                    clause[0] = clause[1];
+                    clause[1] = falseLit;
+                }
+
+                // Satisfied by the other watch?
+                if (litValue(clause[0]) == 1) {
+                    list[j++] = c;
+
+                    continue;
+                }
+
+                // Look for a new literal to watch.
+                for (k = 2; k < clause.length; k++) {
+                    if (litValue(clause[k]) != 0) {
+                        clause[1] = clause[k];
+                        clause[k] = falseLit;
+                        watch(clause[1], c);
+
+                        break;
+                    }
+                }
+
+                if (k < clause.length) {
+                    continue;
+                }
+
+                // Unit or conflicting.
+                list[j++] = c;
+
+                if (!enqueue(clause[0], c)) {
+                    for (i++; i < n; i++) {
+                        list[j++] = list[i];
+                    }
+
+                    watchCount[falseLit] = j;
+                    qhead = trailSize;
+
+                    return c;
+                }
+            }
+
+            watchCount[falseLit] = j;
+        }
+
+        return -1;
+    }
+
+    // Analyze a conflict, returning a nogood asserting at the first
+    // unique implication point; its second literal has the highest
+    // decision level of the rest.
+    int[] analyze(int confl) {
+        int i;
+        int j;
+        int v;
+        int p;
+        int pathCount;
+        int index;
+        int[] clause;
+        int[] learnt = new int[730];
+        int[] kept;
+        int size;
+
+        size = 1;
+        pathCount = 0;
+        p = -1;
+        index = trailSize - 1;
+
+        do {
+            clause = (int[]) clauses.elementAt(confl);
+
+            for (i = (p < 0) ? 0 : 1; i < clause.length; i++) {
+                v = clause[i] >> 1;
+
+                if (!seen[v] && (level[v] > 0)) {
+                    seen[v] = true;
+                    bump(v);
+
+                    if (level[v] == decisionLevel) {
+                        pathCount++;
+                    } else {
+                        learnt[size++] = clause[i];
+                    }
+                }
+            }
+
+            // Next marked literal on the trail.
+            while (!seen[trail[index] >> 1]) {
+                index--;
+            }
+
+            p = trail[index--];
+            confl = reason[p >> 1];
+            seen[p >> 1] = false;
+            pathCount--;
+        } while (pathCount > 0);
+
+        learnt[0] = p ^ 1;
+
+        // Drop literals implied by the rest of the nogood.
+        kept = new int[size];
+        kept[0] = learnt[0];
+
+        for (i = j = 1; i < size; i++) {
+            if (!implied(learnt[i])) {
+                kept[j++] = learnt[i];
+            }
+        }
+
+        for (i = 1; i < size; i++) {
+            seen[learnt[i] >> 1] = false;
+        }
+
+        learnt = kept;
+        size = j;
+
+        // Watch the literal from the highest remaining level.
+        for (i = 2; i < size; i++) {
+            if (level[learnt[i] >> 1] > level[learnt[1] >> 1]) {
+                p = learnt[1];
+                learnt[1] = learnt[i];
+                learnt[i] = p;
+            }
+        }
+
+        return Arrays.copyOf(learnt, size);
+    }
+
+    // Is a nogood literal implied by other marked or top-level literals?
+    boolean implied(int lit) {
+        int i;
+        int v;
+        int c = reason[lit >> 1];
+        int[] clause;
+
+        if (c < 0) {
+            return false;
+        }
+
+        clause = (int[]) clauses.elementAt(c);
+
+        for (i = 1; i < clause.length; i++) {
+            v = clause[i] >> 1;
+
+            if (!seen[v] && (level[v] > 0)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Undo assignments above a decision level.
+    void cancelUntil(int target) {
+        int v;
+
+        if (decisionLevel <= target) {
+            return;
+        }
+
+        while (trailSize > trailLim[target]) {
+            v = trail[--trailSize] >> 1;
+            value[v] = -1;
+            reason[v] = -1;
+        }
+
+        qhead = trailSize;
+        decisionLevel = target;
+    }
+
+    // Most active unassigned variable, or -1 if all are assigned.
+    int pickBranch() {
+        int v;
+        int best = -1;
+
+        for (v = 0; v < 729; v++) {
+            if ((value[v] < 0) &&
+                    ((best < 0) || (activity[v] > activity[best]))) {
+                best = v;
+            }
+        }
+
+        return best;
+    }
+
+    // Increase the activity of a variable involved in a conflict.
+    void bump(int v) {
+        if ((activity[v] += activityInc) > 1e100) {
+            for (int i = 0; i < 729; i++) {
+                activity[i] *= 1e-100;
+            }
+
+            activityInc *= 1e-100;
+        }
+    }
+
+    // Luby restart sequence: 1, 1, 2, 1, 1, 2, 4, ... (i from 1).
+    static int luby(int i) {
+        int k;
+
+        for (k = 1; ((1 << k) - 1) < i; k++)
+            ;
+
+        while (i != ((1 << k) - 1)) {
+            i -= ((1 << (k - 1)) - 1);
+
+            for (k = 1; ((1 << k) - 1) < i; k++)
+                ;
+        }
+
+        return 1 << (k - 1);
+    }
+
+    // Number of learned nogoods.
+    int learntCount() {
+        return clauses.size() - problemClauses;
+    }
+}
@@ -0,0 +1,119 @@
+// Parallel pass over a line-oriented corpus.
+package sudoku;
+
+import java.io.*;
+
+import java.util.*;
+
+import java.util.concurrent.*;
+
+
+/*
+ * Reads the non-blank lines of a corpus file in batches and processes
+ * each batch on a pool of threads, each thread taking a fixed stripe
+ * of the batch with its own worker, so workers can keep scratch state
+ * without locking. Results are handed back in corpus order, with the
+ * line number of each entry, before the next batch is read.
+ */
+class SudokuCorpus {
+    // Processes corpus lines for one thread.
+    interface Worker<T> {
+        T process(String line);
+    }
+
+    // Makes the worker of each thread.
+    interface WorkerFactory<T> {
+        Worker<T> newWorker();
+    }
+
+    // Receives results in corpus order.
+    interface Collector<T> {
+        void collect(long lineNum, String line, T result);
+    }
+
+    // Process a corpus file, batchSize lines at a time.
+    // Return the number of lines processed.
+    static <T> long process(String filename, int threads, int batchSize,
+        WorkerFactory<T> factory, Collector<T> collector)
+        throws Exception {
+        int i;
+        int n;
+        long lineNum;
+        long count;
+        String s;
+        final String[] lines = new String[batchSize];
+        final long[] lineNums = new long[batchSize];
+        final Vector<T> results = new Vector<T>();
+        BufferedReader in = null;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+
+        results.setSize(batchSize);
+
+        // Each thread processes a stripe of the batch with its own worker.
+        for (i = 0; i < threads; i++) {
+            final int first = i;
+            final int stride = threads;
+            final Worker<T> worker = factory.newWorker();
+
+            tasks.addElement(new Callable<Object>() {
+                    public Object call() {
+                        for (int j = first; j < lines.length; j += stride) {
+                            if (lines[j] != null) {
+                                results.set(j, worker.process(lines[j]));
+                            }
+                        }
+
+                        return null;
+                    }
+                });
+        }
+
+        count = lineNum = 0;
+
+        try {
+            in = new BufferedReader(new FileReader(filename));
+
+            do {
+                for (n = 0; n < batchSize;) {
+                    if ((s = in.readLine()) == null) {
+                        break;
+                    }
+
+                    lineNum++;
+
+                    if (s.trim().length() > 0) {
+                        lines[n] = s;
+                        lineNums[n++] = lineNum;
+                    }
+                }
+
+                for (i = n; i < batchSize; i++) {
+                    lines[i] = null;
+                }
+
+                for (Future<Object> f : executor.invokeAll(tasks)) {
+                    f.get();
+                }
+
+                for (i = 0; i < n; i++) {
+                    collector.collect(lineNums[i], lines[i], results.get(i));
+                    results.set(i, null);
+                }
+
+                count += n;
+            } while (n == batchSize);
+        } finally {
+            executor.shutdown();
+
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (Exception e) {
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,468 @@
+/*
+
+Cost model for choosing a Sudoku search strategy.
+
+Each engine configuration has a linear model predicting the log of its
+solve time in microseconds from cheap puzzle features measured after
+the first deduction pass: clue count, filled cells, remaining
+candidates, bivalue cells and symmetry. Sudoku -strategy auto picks the
+configuration with the lowest prediction, leaving out those with
+symmetry checks unless -symmetrycheck is on.
+
+Calibrate a model file offline from a puzzle corpus:
+
+Command-line options:
+-puzzles <puzzles file> -savefile <model output file>
+[-maxexpand <expansion limit per run>]
+
+The puzzles file holds one puzzle per line as 81 cells in row order
+(0 or . for empty). Each configuration is run on every puzzle; runs
+cut off at the expansion limit are charged four times their time.
+
+Model file format: one line per configuration with its name and
+feature weights (bias first); lines starting with # are comments.
+A calibrated model file records its corpus and expansion limit in a
+comment.
+
+The bundled sudoku_model.txt, and the default weights, come from:
+sudokucostmodel -puzzles sudoku_calibration.txt -savefile sudoku_model.txt
+-maxexpand 100
+The corpus holds the bundled puzzles and a sample of easy, hard and
+sparse puzzles. Timings vary by machine, so recalibrating gives
+similar but not identical weights.
+
+*/
+package sudoku;
+
+import java.io.*;
+
+import java.util.*;
+
+
+public class SudokuCostModel {
+    // Engine configurations.
+    static final String[] NAMES = {
+            "depth", "breadth", "best", "best-repeat", "best-symmetry",
+            "conflict", "beam", "deepening"
+        };
+    static final int[] STRATEGIES = {
+            Sudoku.DEPTH, Sudoku.BREADTH, Sudoku.BEST, Sudoku.BEST,
+            Sudoku.BEST, Sudoku.CONFLICT, Sudoku.BEAM, Sudoku.DEEPENING
+        };
+    static final boolean[] REPEAT_CHECKS = {
+            false, false, false, true, false, false, false, false
+        };
+    static final boolean[] SYMMETRY_CHECKS = {
+            false, false, false, false, true, false, false, false
+        };
+
+    // Number of features, including the bias.
+    static final int FEATURES = 6;
+
+    // Default weights, as in sudoku_model.txt, calibrated on
+    // sudoku_calibration.txt.
+    static final double[][] DEFAULT_WEIGHTS = {
+            { 13.7252, -2.9743, -6.2891, 2.2675, -3.4827, -1.6055 },
+            { 13.7439, -5.3343, -5.276, 8.0597, -5.1689, -5.7577 },
+            { 10.529, -4.4321, -2.6378, 6.3446, 1.1956, -3.9003 },
+            { 9.9131, -3.7707, -2.5417, 7.3986, 1.9942, -4.4601 },
+            { 9.3952, -2.1533, -1.7622, 7.6327, -1.4782, -3.6446 },
+            { 11.0196, -5.1916, -2.1443, -3.6756, 4.0177, 0.5144 },
+            { 9.0538, -5.0943, -0.6335, 12.0481, 0.8277, -4.6597 },
+            { 12.3952, -5.5021, -4.0211, 1.2965, -4.3076, -1.9846 }
+        };
+
+    // Penalty factor for runs cut off at the expansion limit.
+    static final double CUTOFF_PENALTY = 4.0;
+
+    // Ridge regularization for calibration.
+    static final double RIDGE = 0.01;
+
+    // Command-line options.
+    static final String Usage = "sudokucostmodel -puzzles <puzzles file> -savefile <model output file>\n\t[-maxexpand <expansion limit per run>]";
+
+    // Weights by configuration.
+    double[][] weights;
+
+    // Calibration corpus and expansion limit, if calibrated here.
+    String source;
+
+    // Constructors.
+    SudokuCostModel(double[][] weights) {
+        this.weights = weights;
+    }
+
+    SudokuCostModel() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    // Main.
+    public static void main(String[] args) {
+        int i;
+        int maxExpand;
+        String puzzlesfile;
+        String savefile;
+
+        puzzlesfile = savefile = null;
+        maxExpand = 200;
+
+        for (i = 0; i < args.length; i++) {
+            if (args[i].equals("-puzzles") && ((i + 1) < args.length)) {
+                puzzlesfile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-savefile") && ((i + 1) < args.length)) {
+                savefile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-maxexpand") && ((i + 1) < args.length)) {
+                try {
+                    maxExpand = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    maxExpand = 0;
+                }
+
+                if (maxExpand <= 0) {
+                    System.err.println("Invalid maxexpand option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        if ((puzzlesfile == null) || (savefile == null)) {
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        calibrate(puzzlesfile, maxExpand).save(savefile);
+    }
+
+    // Features of a deduced state and its symmetries, bias first.
+    static double[] features(int clues, SudokuState state,
+        SudokuSymmetry symmetry) {
+        int x;
+        int y;
+        int n;
+        int c;
+        int remaining;
+        int bivalue;
+        double[] features = new double[FEATURES];
+
+        remaining = bivalue = 0;
+
+        for (y = 0; y < 9; y++) {
+            for (x = 0; x < 9; x++) {
+                if (state.getNum(x, y) > 0) {
+                    continue;
+                }
+
+                for (n = 1, c = 0; n <= 9; n++) {
+                    if (state.placeOK(x, y, n)) {
+                        c++;
+                    }
+                }
+
+                remaining += c;
+
+                if (c == 2) {
+                    bivalue++;
+                }
+            }
+        }
+
+        features[0] = 1.0;
+        features[1] = clues / 81.0;
+        features[2] = state.gridCount() / 81.0;
+        features[3] = remaining / 729.0;
+        features[4] = bivalue / 81.0;
+        features[5] = Math.log(symmetry.size()) /
+            Math.log(SudokuSymmetry.MAX_SYMMETRIES);
+
+        return features;
+    }
+
+    // Predicted log time of a configuration.
+    double predict(int config, double[] features) {
+        double p = 0.0;
+
+        for (int i = 0; i < FEATURES; i++) {
+            p += (weights[config][i] * features[i]);
+        }
+
+        return p;
+    }
+
+    // Configuration predicted to be fastest, leaving out those with
+    // symmetry checks unless they are allowed.
+    int choose(double[] features, boolean symmetryCheck) {
+        int best = -1;
+
+        for (int i = 0; i < NAMES.length; i++) {
+            if (SYMMETRY_CHECKS[i] && !symmetryCheck) {
+                continue;
+            }
+
+            if ((best < 0) || (predict(i, features) < predict(best, features))) {
+                best = i;
+            }
+        }
+
+        return best;
+    }
+
+    // Load a model file.
+    static SudokuCostModel load(String filename) {
+        int i;
+        int config;
+        String s;
+        String[] fields;
+        double[][] weights = new double[NAMES.length][];
+        BufferedReader in = null;
+
+        try {
+            in = new BufferedReader(new FileReader(filename));
+
+            while ((s = in.readLine()) != null) {
+                s = s.trim();
+
+                if ((s.length() == 0) || s.startsWith("#")) {
+                    continue;
+                }
+
+                fields = s.split("\\s+");
+
+                for (config = 0; config < NAMES.length; config++) {
+                    if (NAMES[config].equals(fields[0])) {
+                        break;
+                    }
+                }
+
+                if ((config == NAMES.length) ||
+                        (fields.length != (FEATURES + 1))) {
+                    throw new IOException("Invalid model line: " + s);
+                }
+
+                weights[config] = new double[FEATURES];
+
+                for (i = 0; i < FEATURES; i++) {
+                    weights[config][i] = Double.parseDouble(fields[i + 1]);
+                }
+            }
+
+            for (config = 0; config < NAMES.length; config++) {
+                if (weights[config] == null) {
+                    throw new IOException("Missing configuration " +
+                        NAMES[config]);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error loading file " + filename + ":" +
+                e.toString());
+            System.exit(1);
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (Exception e) {
+            }
+        }
+
+        return new SudokuCostModel(weights);
+    }
+
+    // Save a model file.
+    void save(String filename) {
+        int i;
+        int config;
+        PrintWriter out = null;
+
+        try {
+            out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+            out.println("# Sudoku cost model: configuration, then weights for");
+            out.println("# bias, clues, filled, candidates, bivalue, symmetry");
+
+            if (source != null) {
+                out.println("# Calibrated on " + source);
+            }
+
+            for (config = 0; config < NAMES.length; config++) {
+                out.print(NAMES[config]);
+
+                for (i = 0; i < FEATURES; i++) {
+                    out.print(" " +
+                        (Math.round(weights[config][i] * 10000.0) / 10000.0));
+                }
+
+                out.println();
+            }
+
+            if (out.checkError()) {
+                throw new IOException("Write failed");
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving file " + filename + ":" +
+                e.toString());
+            System.exit(1);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    // Calibrate a model by timing every configuration on a corpus.
+    static SudokuCostModel calibrate(String puzzlesfile, int maxExpand) {
+        int i;
+        int j;
+        int config;
+        int clues;
+        long time;
+        double cost;
+        String s;
+        double[] f;
+        SudokuState puzzle;
+        SudokuState state;
+        Sudoku sudoku;
+        SudokuCostModel model;
+        double[][][] xtx = new double[NAMES.length][FEATURES][FEATURES];
+        double[][] xty = new double[NAMES.length][FEATURES];
+        double[][] weights = new double[NAMES.length][];
+        BufferedReader in = null;
+        int count = 0;
+
+        try {
+            in = new BufferedReader(new FileReader(puzzlesfile));
+
+            while ((s = in.readLine()) != null) {
+                if ((puzzle = SudokuState.parseLine(s.trim())) == null) {
+                    continue;
+                }
+
+                if (!puzzle.isValid()) {
+                    continue;
+                }
+
+                // Features after the first deduction pass.
+                state = puzzle.cloneState();
+                clues = state.gridCount();
+                new Sudoku(Sudoku.DEPTH, false).deduce(state);
+                f = features(clues, state, new SudokuSymmetry(state));
+
+                for (config = 0; config < NAMES.length; config++) {
+                    sudoku = new Sudoku(STRATEGIES[config],
+                            REPEAT_CHECKS[config]);
+                    sudoku.SymmetryCheck = SYMMETRY_CHECKS[config];
+                    sudoku.ExpandLimit = maxExpand;
+                    time = System.nanoTime();
+                    sudoku.search(puzzle);
+                    cost = (System.nanoTime() - time) / 1000.0;
+
+                    if (sudoku.LimitReached) {
+                        cost *= CUTOFF_PENALTY;
+                    }
+
+                    // Accumulate the normal equations.
+                    cost = Math.log(1.0 + cost);
+
+                    for (i = 0; i < FEATURES; i++) {
+                        xty[config][i] += (f[i] * cost);
+
+                        for (j = 0; j < FEATURES; j++) {
+                            xtx[config][i][j] += (f[i] * f[j]);
+                        }
+                    }
+                }
+
+                count++;
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading file " + puzzlesfile + ":" +
+                e.toString());
+            System.exit(1);
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (Exception e) {
+            }
+        }
+
+        for (config = 0; config < NAMES.length; config++) {
+            for (i = 0; i < FEATURES; i++) {
+                xtx[config][i][i] += RIDGE;
+            }
+
+            weights[config] = solveLinear(xtx[config], xty[config]);
+        }
+
+        System.out.println(count + " puzzles calibrated");
+
+        model = new SudokuCostModel(weights);
+        model.source = new File(puzzlesfile).getName() + " with -maxexpand " +
+            maxExpand;
+
+        return model;
+    }
+
+    // Solve a * x = b by Gaussian elimination with partial pivoting.
+    static double[] solveLinear(double[][] a, double[] b) {
+        int i;
+        int j;
+        int k;
+        int pivot;
+        int n = b.length;
+        double t;
+        double[] swap;
+        double[] x = new double[n];
+
+        for (k = 0; k < n; k++) {
+            pivot = k;
+
+            for (i = k + 1; i < n; i++) {
+                if (Math.abs(a[i][k]) > Math.abs(a[pivot][k])) {
+                    pivot = i;
+                }
+            }
+
+            swap = a[k];
+            a[k] = a[pivot];
+            a[pivot] = swap;
+            t = b[k];
+            b[k] = b[pivot];
+            b[pivot] = t;
+
+            for (i = k + 1; i < n; i++) {
+                t = a[i][k] / a[k][k];
+                b[i] -= (t * b[k]);
+
+                for (j = k; j < n; j++) {
+                    a[i][j] -= (t * a[k][j]);
+                }
+            }
+        }
+
+        for (i = n - 1; i >= 0; i--) {
+            t = b[i];
+
+            for (j = i + 1; j < n; j++) {
+                t -= (a[i][j] * x[j]);
+            }
+
+            x[i] = t / a[i][i];
+        }
+
+        return x;
+    }
+}
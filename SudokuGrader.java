@@ -0,0 +1,872 @@
+/*
+
+Grade the difficulty of Sudoku puzzles.
+
+Each puzzle is solved with the weakest logical techniques that suffice,
+always retrying the weakest technique after any progress. The grade is
+the hardest technique needed and a score summing the weight of each
+technique step. When logic alone cannot finish, nested guesses are
+tried to a bounded depth, propagating each guess with singles,
+pointing and claiming, and the depth needed is added to the score.
+
+Techniques, weakest first: naked single, hidden single, pointing
+(a number confined to one line of a box, as in Sudoku.boxCheck),
+claiming (a number confined to one box of a line), naked pair,
+hidden pair, X-wing, search.
+
+Command-line options:
+-puzzles <puzzles file> [-savefile <grades output file>]
+[-threads <number of threads>]
+or: -check
+
+The puzzles file holds one puzzle per line as 81 cells in row order
+(0 or . for empty). Each output line holds the puzzle, the hardest
+technique and the score. A puzzle whose guesses run out is graded
+"search>N", where N is the deepest depth searched in full.
+
+-check grades a few puzzles of known grade, including the empty grid,
+which runs out of guesses during depth 4 and so grades "search>3",
+and exits with status 1 on any mismatch.
+
+*/
+package sudoku;
+
+import java.io.*;
+
+
+public class SudokuGrader {
+    // Techniques, weakest first.
+    static final int NAKED_SINGLE = 0;
+    static final int HIDDEN_SINGLE = 1;
+    static final int POINTING = 2;
+    static final int CLAIMING = 3;
+    static final int NAKED_PAIR = 4;
+    static final int HIDDEN_PAIR = 5;
+    static final int X_WING = 6;
+    static final int SEARCH = 7;
+    static final int INVALID = -1;
+    static final String[] NAMES = {
+            "naked-single", "hidden-single", "pointing", "claiming",
+            "naked-pair", "hidden-pair", "x-wing", "search"
+        };
+    static final int[] WEIGHTS = { 1, 2, 4, 5, 10, 12, 20, 50 };
+
+    // Deepest nesting of guesses tried, and most guesses per puzzle.
+    static final int MAX_DEPTH = 8;
+    static final int MAX_GUESSES = 1000;
+
+    // Puzzles graded per pass.
+    static final int BATCH_SIZE = 10000;
+
+    // Logic outcomes.
+    static final int SOLVED = 0;
+    static final int STUCK = 1;
+    static final int CONTRADICTION = 2;
+
+    // Command-line options.
+    static final String Usage = "sudokugrader -puzzles <puzzles file> [-savefile <grades output file>]\n\t[-threads <number of threads>]\nor: sudokugrader -check";
+
+    // Puzzles of known grade for -check: puzzle, name and score.
+    static final String[][] CHECKS = {
+            {
+                "000000000000000000000000000000000000000000000000000000000000000000000000000000000",
+                "search>3", "200"
+            },
+            {
+                "003056080456000023780103050000600000800900300604008217300060040000007631060001572",
+                "search", "81"
+            },
+            {
+                "000100740050090032006700900400800000020000010000009005004007300730020060065004000",
+                "hidden-single", "79"
+            }
+        };
+
+    // Cells of each unit: rows, then columns, then boxes.
+    static final int[][] UNITS = SudokuState.UNITS;
+
+    // Grid and candidates for each guess depth.
+    int[][] grids;
+    int[][] candidates;
+
+    // Grid and candidates at the current depth.
+    int[] grid;
+    int[] cand;
+
+    // Record technique steps?
+    boolean scoring;
+
+    // Grade of the last puzzle.
+    int hardest;
+    int score;
+    int searchDepth;
+
+    // Places of each number by unit position, for pair and wing passes.
+    int[] placesBuf;
+    int[][] linePlaces;
+
+    // Guesses left for the current puzzle.
+    int guessesLeft;
+
+    // Did the search reach its bounds without a solution?
+    boolean searchBounded;
+
+    // Grade of a corpus line: hardest technique and output line.
+    static class Grade {
+        int hardest;
+        String text;
+
+        Grade(int hardest, String text) {
+            this.hardest = hardest;
+            this.text = text;
+        }
+    }
+
+    // Constructor.
+    SudokuGrader() {
+        grids = new int[MAX_DEPTH + 1][81];
+        candidates = new int[MAX_DEPTH + 1][81];
+        placesBuf = new int[10];
+        linePlaces = new int[9][10];
+    }
+
+    // Main.
+    public static void main(String[] args) {
+        int i;
+        int threads;
+        boolean check;
+        String puzzlesfile;
+        String savefile;
+
+        puzzlesfile = savefile = null;
+        threads = 1;
+        check = false;
+
+        for (i = 0; i < args.length; i++) {
+            if (args[i].equals("-puzzles") && ((i + 1) < args.length)) {
+                puzzlesfile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-savefile") && ((i + 1) < args.length)) {
+                savefile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-threads") && ((i + 1) < args.length)) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
+
+                if (threads < 1) {
+                    System.err.println("Invalid threads option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            if (args[i].equals("-check")) {
+                check = true;
+
+                continue;
+            }
+
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        if (check) {
+            System.exit(check() ? 0 : 1);
+        }
+
+        if (puzzlesfile == null) {
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        gradeCorpus(puzzlesfile, savefile, threads);
+    }
+
+    // Grade the puzzles of known grade.
+    // Return true if every grade matches.
+    static boolean check() {
+        int i;
+        String grade;
+        boolean passed = true;
+        SudokuGrader grader = new SudokuGrader();
+
+        for (i = 0; i < CHECKS.length; i++) {
+            grader.grade(SudokuState.parseLine(CHECKS[i][0]));
+            grade = grader.getName() + " " + grader.score;
+
+            if (!grade.equals(CHECKS[i][1] + " " + CHECKS[i][2])) {
+                System.out.println("FAILED " + CHECKS[i][0] + ": expected " +
+                    CHECKS[i][1] + " " + CHECKS[i][2] + ", got " + grade);
+                passed = false;
+            }
+        }
+
+        System.out.println(passed ? "All grades match" : "Grade mismatch");
+
+        return passed;
+    }
+
+    // Grade a corpus of puzzles, writing grades in corpus order.
+    static void gradeCorpus(String puzzlesfile, String savefile, int threads) {
+        int i;
+        long count;
+        long time;
+        final long[] tiers = new long[NAMES.length + 1];
+        PrintWriter out = null;
+
+        count = 0;
+        time = System.currentTimeMillis();
+
+        try {
+            out = new PrintWriter(new BufferedWriter((savefile != null)
+                        ? new FileWriter(savefile)
+                        : new OutputStreamWriter(System.out)));
+
+            final PrintWriter writer = out;
+
+            count = SudokuCorpus.process(puzzlesfile, threads, BATCH_SIZE,
+                    new SudokuCorpus.WorkerFactory<Grade>() {
+                        public SudokuCorpus.Worker<Grade> newWorker() {
+                            final SudokuGrader grader = new SudokuGrader();
+
+                            return new SudokuCorpus.Worker<Grade>() {
+                                    public Grade process(String line) {
+                                        return grader.gradeEntry(line.trim());
+                                    }
+                                };
+                        }
+                    },
+                    new SudokuCorpus.Collector<Grade>() {
+                        public void collect(long lineNum, String line,
+                            Grade grade) {
+                            writer.println(grade.text);
+                            tiers[(grade.hardest == INVALID) ? NAMES.length
+                                                             : grade.hardest]++;
+                        }
+                    });
+
+            out.flush();
+
+            if (out.checkError()) {
+                throw new IOException("Write failed");
+            }
+        } catch (Exception e) {
+            System.err.println("Error grading file " + puzzlesfile + ":" +
+                e.toString());
+            System.exit(1);
+        } finally {
+            if ((savefile != null) && (out != null)) {
+                out.close();
+            }
+        }
+
+        // Summarize the tiers.
+        for (i = 0; i < NAMES.length; i++) {
+            System.err.println(NAMES[i] + ": " + tiers[i]);
+        }
+
+        System.err.println("invalid: " + tiers[NAMES.length]);
+        System.err.println(count + " puzzles graded in " +
+            (System.currentTimeMillis() - time) + " ms");
+    }
+
+    // Grade a corpus line.
+    Grade gradeEntry(String line) {
+        SudokuState state;
+
+        if ((state = SudokuState.parseLine(line)) == null) {
+            return new Grade(INVALID, line + " invalid 0");
+        }
+
+        grade(state);
+
+        return new Grade(hardest, line + " " + getName() + " " + score);
+    }
+
+    // Grade a puzzle.
+    // Return the hardest technique needed, or INVALID.
+    int grade(SudokuState puzzle) {
+        int i;
+        int result;
+
+        hardest = NAKED_SINGLE;
+        score = 0;
+        searchDepth = 0;
+        searchBounded = false;
+        scoring = true;
+        grid = grids[0];
+        cand = candidates[0];
+
+        for (i = 0; i < 81; i++) {
+            grid[i] = 0;
+            cand[i] = 0x3fe;
+        }
+
+        result = puzzle.isValid() ? SOLVED : CONTRADICTION;
+
+        for (i = 0; (i < 81) && (result != CONTRADICTION); i++) {
+            if (puzzle.grid[i] > 0) {
+                if ((cand[i] & (1 << puzzle.grid[i])) == 0) {
+                    result = CONTRADICTION;
+                } else {
+                    place(i, puzzle.grid[i]);
+                }
+            }
+        }
+
+        if (result != CONTRADICTION) {
+            result = logic();
+        }
+
+        // Fall back to guessing, deepening one level at a time.
+        if (result == STUCK) {
+            scoring = false;
+            guessesLeft = MAX_GUESSES;
+
+            for (i = 1; (i <= MAX_DEPTH) && (guessesLeft > 0); i++) {
+                if ((result = guess(0, i)) != STUCK) {
+                    break;
+                }
+
+                // Depth searched in full, within the budget.
+                if (guessesLeft >= 0) {
+                    searchDepth = i;
+                }
+            }
+
+            if (result == SOLVED) {
+                searchDepth = i;
+                hardest = SEARCH;
+                score += (WEIGHTS[SEARCH] * i);
+            } else if (result == STUCK) {
+                // Beyond the deepest depth searched in full.
+                searchBounded = true;
+                hardest = SEARCH;
+                score += (WEIGHTS[SEARCH] * (searchDepth + 1));
+            }
+        }
+
+        if (result == CONTRADICTION) {
+            hardest = INVALID;
+        }
+
+        return hardest;
+    }
+
+    // Name of the last grade.
+    String getName() {
+        if (hardest == INVALID) {
+            return "invalid";
+        }
+
+        if (searchBounded) {
+            return NAMES[SEARCH] + ">" + searchDepth;
+        }
+
+        return NAMES[hardest];
+    }
+
+    // Guess at the most constrained cell, nesting up to the limit.
+    // Return SOLVED, STUCK if the limit or the guess budget was
+    // reached, or CONTRADICTION if every guess fails.
+    int guess(int depth, int limit) {
+        int i;
+        int best;
+        int bits;
+        int n;
+        int result;
+        boolean stuck;
+
+        // Most constrained open cell.
+        best = -1;
+
+        for (i = 0; i < 81; i++) {
+            if ((grids[depth][i] == 0) &&
+                    ((best < 0) ||
+                    (Integer.bitCount(candidates[depth][i]) < Integer.bitCount(
+                        candidates[depth][best])))) {
+                best = i;
+            }
+        }
+
+        stuck = false;
+
+        for (bits = candidates[depth][best]; bits != 0; bits &= (bits - 1)) {
+            if (--guessesLeft < 0) {
+                return STUCK;
+            }
+
+            n = Integer.numberOfTrailingZeros(bits);
+
+            // Copy the grid to the next depth and try the number there.
+            System.arraycopy(grids[depth], 0, grids[depth + 1], 0, 81);
+            System.arraycopy(candidates[depth], 0, candidates[depth + 1], 0, 81);
+            grid = grids[depth + 1];
+            cand = candidates[depth + 1];
+            place(best, n);
+            result = logic();
+
+            if ((result == STUCK) && ((depth + 1) < limit)) {
+                result = guess(depth + 1, limit);
+            }
+
+            if (result == SOLVED) {
+                return SOLVED;
+            }
+
+            if (result == STUCK) {
+                stuck = true;
+            }
+        }
+
+        return stuck ? STUCK : CONTRADICTION;
+    }
+
+    // Apply techniques until solved, stuck or contradicted.
+    int logic() {
+        // Guesses propagate with the cheaper techniques only.
+        int lastTechnique = scoring ? X_WING : CLAIMING;
+        int t;
+        int steps;
+        boolean progress;
+
+        while (true) {
+            if (isContradiction()) {
+                return CONTRADICTION;
+            }
+
+            if (isSolved()) {
+                return SOLVED;
+            }
+
+            // Weakest technique that makes progress.
+            progress = false;
+
+            for (t = NAKED_SINGLE; (t <= lastTechnique) && !progress; t++) {
+                if ((steps = apply(t)) > 0) {
+                    progress = true;
+
+                    if (scoring) {
+                        score += (WEIGHTS[t] * steps);
+
+                        if (t > hardest) {
+                            hardest = t;
+                        }
+                    }
+                }
+            }
+
+            if (!progress) {
+                return STUCK;
+            }
+        }
+    }
+
+    // Apply a technique.
+    // Return the number of steps that changed the grid or candidates.
+    int apply(int technique) {
+        switch (technique) {
+        case NAKED_SINGLE:
+            return nakedSingles();
+
+        case HIDDEN_SINGLE:
+            return hiddenSingles();
+
+        case POINTING:
+            return pointing() ? 1 : 0;
+
+        case CLAIMING:
+            return claiming() ? 1 : 0;
+
+        case NAKED_PAIR:
+            return nakedPair() ? 1 : 0;
+
+        case HIDDEN_PAIR:
+            return hiddenPair() ? 1 : 0;
+
+        case X_WING:
+            return xWing() ? 1 : 0;
+        }
+
+        return 0;
+    }
+
+    // Place a number, removing it from the candidates of the peers.
+    void place(int cell, int n) {
+        int[] peers = SudokuState.PEERS[cell];
+
+        grid[cell] = n;
+        cand[cell] = 0;
+
+        for (int i = 0; i < peers.length; i++) {
+            cand[peers[i]] &= ~(1 << n);
+        }
+    }
+
+    // Is every cell filled?
+    boolean isSolved() {
+        for (int i = 0; i < 81; i++) {
+            if (grid[i] == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Has an open cell, or a missing number in a unit, no place left?
+    boolean isContradiction() {
+        int i;
+        int u;
+        int placed;
+        int possible;
+
+        for (i = 0; i < 81; i++) {
+            if ((grid[i] == 0) && (cand[i] == 0)) {
+                return true;
+            }
+        }
+
+        for (u = 0; u < 27; u++) {
+            placed = possible = 0;
+
+            for (i = 0; i < 9; i++) {
+                placed |= (1 << grid[UNITS[u][i]]);
+                possible |= cand[UNITS[u][i]];
+            }
+
+            if (((placed | possible) & 0x3fe) != 0x3fe) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Place every cell with one candidate.
+    // Return the number placed.
+    int nakedSingles() {
+        int count = 0;
+
+        for (int i = 0; i < 81; i++) {
+            if ((cand[i] != 0) && ((cand[i] & (cand[i] - 1)) == 0)) {
+                place(i, Integer.numberOfTrailingZeros(cand[i]));
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    // Place every number with one place in a unit.
+    // Return the number placed.
+    int hiddenSingles() {
+        int u;
+        int i;
+        int c;
+        int once;
+        int twice;
+        int bit;
+        int count = 0;
+
+        for (u = 0; u < 27; u++) {
+            once = twice = 0;
+
+            for (i = 0; i < 9; i++) {
+                c = cand[UNITS[u][i]];
+                twice |= (once & c);
+                once |= c;
+            }
+
+            for (once &= ~twice; once != 0; once &= ~bit) {
+                bit = once & -once;
+
+                for (i = 0; i < 9; i++) {
+                    if ((cand[UNITS[u][i]] & bit) != 0) {
+                        place(UNITS[u][i], Integer.numberOfTrailingZeros(bit));
+                        count++;
+
+                        break;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    // Number confined to one line of a box: remove it from the
+    // rest of the line.
+    boolean pointing() {
+        int b;
+        int n;
+        int i;
+        int cell;
+        int rows;
+        int cols;
+
+        for (b = 0; b < 9; b++) {
+            for (n = 1; n <= 9; n++) {
+                rows = cols = 0;
+
+                for (i = 0; i < 9; i++) {
+                    cell = UNITS[18 + b][i];
+
+                    if ((cand[cell] & (1 << n)) != 0) {
+                        rows |= (1 << (cell / 9));
+                        cols |= (1 << (cell % 9));
+                    }
+                }
+
+                if ((rows != 0) && ((rows & (rows - 1)) == 0) &&
+                        eliminate(UNITS[Integer.numberOfTrailingZeros(rows)],
+                            UNITS[18 + b], n)) {
+                    return true;
+                }
+
+                if ((cols != 0) && ((cols & (cols - 1)) == 0) &&
+                        eliminate(UNITS[9 +
+                            Integer.numberOfTrailingZeros(cols)],
+                            UNITS[18 + b], n)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // Number confined to one box of a line: remove it from the
+    // rest of the box.
+    boolean claiming() {
+        int u;
+        int n;
+        int i;
+        int cell;
+        int boxes;
+
+        for (u = 0; u < 18; u++) {
+            for (n = 1; n <= 9; n++) {
+                boxes = 0;
+
+                for (i = 0; i < 9; i++) {
+                    cell = UNITS[u][i];
+
+                    if ((cand[cell] & (1 << n)) != 0) {
+                        boxes |= (1 << (SudokuState.box(cell) - 18));
+                    }
+                }
+
+                if ((boxes != 0) && ((boxes & (boxes - 1)) == 0) &&
+                        eliminate(UNITS[18 +
+                            Integer.numberOfTrailingZeros(boxes)], UNITS[u], n)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // Remove a number from the cells of a unit outside another unit.
+    // Return true if any candidate was removed.
+    boolean eliminate(int[] unit, int[] keep, int n) {
+        int i;
+        int j;
+        boolean changed = false;
+
+        for (i = 0; i < 9; i++) {
+            if ((cand[unit[i]] & (1 << n)) == 0) {
+                continue;
+            }
+
+            for (j = 0; (j < 9) && (keep[j] != unit[i]); j++)
+                ;
+
+            if (j == 9) {
+                cand[unit[i]] &= ~(1 << n);
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    // Two cells of a unit with the same two candidates: remove those
+    // numbers from the rest of the unit.
+    boolean nakedPair() {
+        int u;
+        int i;
+        int j;
+        int k;
+        int pair;
+        int cell;
+        boolean changed;
+
+        for (u = 0; u < 27; u++) {
+            for (i = 0; i < 9; i++) {
+                pair = cand[UNITS[u][i]];
+
+                if (Integer.bitCount(pair) != 2) {
+                    continue;
+                }
+
+                for (j = i + 1; j < 9; j++) {
+                    if (cand[UNITS[u][j]] != pair) {
+                        continue;
+                    }
+
+                    changed = false;
+
+                    for (k = 0; k < 9; k++) {
+                        cell = UNITS[u][k];
+
+                        if ((k != i) && (k != j) && ((cand[cell] & pair) != 0)) {
+                            cand[cell] &= ~pair;
+                            changed = true;
+                        }
+                    }
+
+                    if (changed) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // Two numbers with the same two places in a unit: remove other
+    // candidates from those cells.
+    boolean hiddenPair() {
+        int u;
+        int n;
+        int m;
+        int i;
+        int pair;
+        boolean changed;
+
+        for (u = 0; u < 27; u++) {
+            places(u, placesBuf);
+
+            for (n = 1; n <= 9; n++) {
+                if (Integer.bitCount(placesBuf[n]) != 2) {
+                    continue;
+                }
+
+                for (m = n + 1; m <= 9; m++) {
+                    if (placesBuf[m] != placesBuf[n]) {
+                        continue;
+                    }
+
+                    pair = (1 << n) | (1 << m);
+                    changed = false;
+
+                    for (i = 0; i < 9; i++) {
+                        if (((placesBuf[n] & (1 << i)) != 0) &&
+                                ((cand[UNITS[u][i]] & ~pair) != 0)) {
+                            cand[UNITS[u][i]] &= pair;
+                            changed = true;
+                        }
+                    }
+
+                    if (changed) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // Places of each number in a unit, one bit per unit position.
+    void places(int u, int[] places) {
+        int i;
+        int c;
+        int n;
+
+        for (n = 1; n <= 9; n++) {
+            places[n] = 0;
+        }
+
+        for (i = 0; i < 9; i++) {
+            for (c = cand[UNITS[u][i]]; c != 0; c &= (c - 1)) {
+                places[Integer.numberOfTrailingZeros(c)] |= (1 << i);
+            }
+        }
+    }
+
+    // Number with the same two places in two rows (or columns):
+    // remove it from the rest of those columns (or rows).
+    boolean xWing() {
+        int base;
+        int n;
+        int a;
+        int b;
+        int i;
+        int places;
+        int cross;
+        int cell;
+        boolean changed;
+
+        for (base = 0; base <= 9; base += 9) {
+            for (a = 0; a < 9; a++) {
+                places(base + a, linePlaces[a]);
+            }
+
+            for (n = 1; n <= 9; n++) {
+                for (a = 0; a < 9; a++) {
+                    places = linePlaces[a][n];
+
+                    if (Integer.bitCount(places) != 2) {
+                        continue;
+                    }
+
+                    for (b = a + 1; b < 9; b++) {
+                        if (linePlaces[b][n] != places) {
+                            continue;
+                        }
+
+                        changed = false;
+
+                        for (cross = places; cross != 0;
+                                cross &= (cross - 1)) {
+                            for (i = 0; i < 9; i++) {
+                                if ((i == a) || (i == b)) {
+                                    continue;
+                                }
+
+                                cell = UNITS[(9 - base) +
+                                    Integer.numberOfTrailingZeros(cross)][i];
+
+                                if ((cand[cell] & (1 << n)) != 0) {
+                                    cand[cell] &= ~(1 << n);
+                                    changed = true;
+                                }
+                            }
+                        }
+
+                        if (changed) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,404 @@
+// Sudoku playing session.
+package sudoku;
+
+import java.util.*;
+
+
+/*
+ * Keeps a player's grid together with the numbers used in each row,
+ * column and box and the candidates of each cell, so that an edit or
+ * undo updates the state in constant time and hints, consistency checks
+ * and conflict checks can be answered without reloading or deducing the
+ * whole grid again. Box and line eliminations found by hints are kept
+ * while the player only adds numbers, and dropped when a number is
+ * cleared or replaced, as they may have depended on it.
+ */
+class SudokuSession {
+    // Hint techniques.
+    static final int NAKED_SINGLE = 0;
+    static final int HIDDEN_SINGLE = 1;
+    static final int BOX_LINE = 2;
+    static final int SOLUTION = 3;
+    static final int FIX = 4;
+
+    // Consistency with the unique solution.
+    static final int INCONSISTENT = 0;
+    static final int CONSISTENT = 1;
+    static final int UNKNOWN = 2;
+
+    // Puzzle clues.
+    SudokuState clues;
+
+    // Player's grid.
+    SudokuState grid;
+
+    // Unique solution, or null if the puzzle does not have one.
+    SudokuState solution;
+
+    // Count of each number in each unit: rows, then columns, then boxes.
+    int[] unitCount;
+
+    // Numbers used in each unit, one bit per number.
+    int[] unitMask;
+
+    // Edit history as packed cell and previous number.
+    int[] history;
+    int historySize;
+
+    // Candidates by cell, for hint deductions; 0 for a filled cell.
+    int[] candidates;
+
+    // Candidates eliminated by box and line interaction, by cell.
+    int[] eliminated;
+
+    // Constructor.
+    SudokuSession(SudokuState clues) {
+        int i;
+        Object[] solutions;
+
+        this.clues = clues.cloneState();
+        grid = clues.cloneState();
+        unitCount = new int[27 * 10];
+        unitMask = new int[27];
+        history = new int[81];
+        historySize = 0;
+        candidates = new int[81];
+        eliminated = new int[81];
+
+        for (i = 0; i < 81; i++) {
+            if (grid.grid[i] > 0) {
+                add(i, grid.grid[i]);
+            }
+        }
+
+        for (i = 0; i < 81; i++) {
+            updateCandidates(i);
+        }
+
+        // Find the solution once, checking that it is unique.
+        solution = null;
+
+        if (clues.isValid()) {
+            solutions = SudokuSolutions.stream(clues, false).limit(2).toArray();
+
+            if (solutions.length == 1) {
+                solution = (SudokuState) solutions[0];
+            }
+        }
+    }
+
+    // Get number in grid.
+    int getNum(int x, int y) {
+        return grid.getNum(x, y);
+    }
+
+    // Set number in grid (0=clear).
+    // Return false if the cell holds a clue.
+    boolean setNum(int x, int y, int num) {
+        int i = x + (y * 9);
+
+        if ((clues.grid[i] > 0) || (num < 0) || (num > 9)) {
+            return false;
+        }
+
+        if (historySize == history.length) {
+            history = Arrays.copyOf(history, history.length * 2);
+        }
+
+        history[historySize++] = (i * 10) + grid.grid[i];
+        change(i, num);
+
+        return true;
+    }
+
+    // Undo the last edit.
+    // Return false if there is nothing to undo.
+    boolean undo() {
+        int move;
+
+        if (historySize == 0) {
+            return false;
+        }
+
+        move = history[--historySize];
+        change(move / 10, move % 10);
+
+        return true;
+    }
+
+    // Is the number at x, y consistent with the unique solution?
+    // An empty cell is consistent; without a unique solution the
+    // answer is UNKNOWN.
+    int isConsistent(int x, int y, int num) {
+        if (num == 0) {
+            return CONSISTENT;
+        }
+
+        if (solution == null) {
+            return UNKNOWN;
+        }
+
+        return (solution.getNum(x, y) == num) ? CONSISTENT : INCONSISTENT;
+    }
+
+    // Is the grid solved?
+    boolean isSolved() {
+        return (grid.gridCount() == 81) && (conflicts().length == 0);
+    }
+
+    // Cells that repeat a number in their row, column or box,
+    // as indices x + (y * 9).
+    int[] conflicts() {
+        int i;
+        int n;
+        int c;
+        int[] cells = new int[81];
+
+        for (i = c = 0; i < 81; i++) {
+            if ((n = grid.grid[i]) == 0) {
+                continue;
+            }
+
+            if ((unitCount[(SudokuState.row(i) * 10) + n] > 1) ||
+                    (unitCount[(SudokuState.col(i) * 10) + n] > 1) ||
+                    (unitCount[(SudokuState.box(i) * 10) + n] > 1)) {
+                cells[c++] = i;
+            }
+        }
+
+        return Arrays.copyOf(cells, c);
+    }
+
+    // Next logical step as { x, y, number, technique },
+    // or null if the grid is complete or has conflicts.
+    // A player's number that differs from the unique solution is
+    // corrected first (FIX), as deductions from it would mislead.
+    int[] hint() {
+        int i;
+        int step;
+
+        if (solution != null) {
+            for (i = 0; i < 81; i++) {
+                if ((grid.grid[i] != 0) && (grid.grid[i] != solution.grid[i])) {
+                    return new int[] { i % 9, i / 9, solution.grid[i], FIX };
+                }
+            }
+        }
+
+        if ((grid.gridCount() == 81) || (conflicts().length > 0)) {
+            return null;
+        }
+
+        if ((step = nakedSingle()) >= 0) {
+            return step(step, NAKED_SINGLE);
+        }
+
+        if ((step = hiddenSingle()) >= 0) {
+            return step(step, HIDDEN_SINGLE);
+        }
+
+        // Eliminate numbers confined to one line of a box
+        // from the rest of that line, then look for singles again.
+        if (boxLine()) {
+            if ((step = nakedSingle()) >= 0) {
+                return step(step, BOX_LINE);
+            }
+
+            if ((step = hiddenSingle()) >= 0) {
+                return step(step, BOX_LINE);
+            }
+        }
+
+        // Reveal the solution at the cell with the fewest candidates.
+        if (solution == null) {
+            return null;
+        }
+
+        step = -1;
+
+        for (i = 0; i < 81; i++) {
+            if ((grid.grid[i] == 0) &&
+                    ((step < 0) ||
+                    (Integer.bitCount(candidates[i]) < Integer.bitCount(
+                        candidates[step])))) {
+                step = i;
+            }
+        }
+
+        return new int[] { step % 9, step / 9, solution.grid[step], SOLUTION };
+    }
+
+    // Apply an edit to the grid, unit counts and candidates.
+    void change(int i, int num) {
+        int j;
+        int[] peers = SudokuState.PEERS[i];
+        boolean removed = (grid.grid[i] > 0);
+
+        if (removed) {
+            remove(i, grid.grid[i]);
+        }
+
+        grid.grid[i] = (char) num;
+
+        if (num > 0) {
+            add(i, num);
+        }
+
+        // Eliminations may have depended on a removed number.
+        if (removed) {
+            Arrays.fill(eliminated, 0);
+
+            for (j = 0; j < 81; j++) {
+                updateCandidates(j);
+            }
+
+            return;
+        }
+
+        updateCandidates(i);
+
+        for (j = 0; j < peers.length; j++) {
+            updateCandidates(peers[j]);
+        }
+    }
+
+    // Recompute the candidates of a cell from its units.
+    void updateCandidates(int i) {
+        if (grid.grid[i] > 0) {
+            candidates[i] = 0;
+        } else {
+            candidates[i] = ~(unitMask[SudokuState.row(i)] |
+                unitMask[SudokuState.col(i)] | unitMask[SudokuState.box(i)] |
+                eliminated[i]) & 0x3fe;
+        }
+    }
+
+    // Count a number into the units of a cell.
+    void add(int i, int num) {
+        count(SudokuState.row(i), num, 1);
+        count(SudokuState.col(i), num, 1);
+        count(SudokuState.box(i), num, 1);
+    }
+
+    // Count a number out of the units of a cell.
+    void remove(int i, int num) {
+        count(SudokuState.row(i), num, -1);
+        count(SudokuState.col(i), num, -1);
+        count(SudokuState.box(i), num, -1);
+    }
+
+    // Adjust the count of a number in a unit.
+    void count(int unit, int num, int delta) {
+        if ((unitCount[(unit * 10) + num] += delta) > 0) {
+            unitMask[unit] |= (1 << num);
+        } else {
+            unitMask[unit] &= ~(1 << num);
+        }
+    }
+
+    // Cell with a single candidate packed with its number, or -1.
+    int nakedSingle() {
+        for (int i = 0; i < 81; i++) {
+            if (Integer.bitCount(candidates[i]) == 1) {
+                return (i * 10) + Integer.numberOfTrailingZeros(candidates[i]);
+            }
+        }
+
+        return -1;
+    }
+
+    // Cell that is the only place for a number in one of its units,
+    // packed with its number, or -1.
+    int hiddenSingle() {
+        int unit;
+        int num;
+        int j;
+        int cell;
+        int place;
+
+        for (unit = 0; unit < 27; unit++) {
+            for (num = 1; num <= 9; num++) {
+                if ((unitMask[unit] & (1 << num)) != 0) {
+                    continue;
+                }
+
+                for (j = 0, place = -1; j < 9; j++) {
+                    cell = SudokuState.UNITS[unit][j];
+
+                    if ((candidates[cell] & (1 << num)) != 0) {
+                        if (place >= 0) {
+                            break;
+                        }
+
+                        place = cell;
+                    }
+                }
+
+                if ((j == 9) && (place >= 0)) {
+                    return (place * 10) + num;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    // Eliminate candidates by box and line interaction.
+    // Return true if any candidate was eliminated.
+    boolean boxLine() {
+        int b;
+        int num;
+        int bit;
+        int j;
+        int cell;
+        int line;
+        int rows;
+        int cols;
+        boolean changed = false;
+
+        for (b = 0; b < 9; b++) {
+            for (num = 1; num <= 9; num++) {
+                bit = 1 << num;
+                rows = cols = 0;
+
+                for (j = 0; j < 9; j++) {
+                    cell = SudokuState.UNITS[18 + b][j];
+
+                    if ((candidates[cell] & bit) != 0) {
+                        rows |= (1 << SudokuState.row(cell));
+                        cols |= (1 << (SudokuState.col(cell) - 9));
+                    }
+                }
+
+                // Confined to one row or column of the box?
+                if (Integer.bitCount(rows) == 1) {
+                    line = Integer.numberOfTrailingZeros(rows);
+                } else if (Integer.bitCount(cols) == 1) {
+                    line = 9 + Integer.numberOfTrailingZeros(cols);
+                } else {
+                    continue;
+                }
+
+                for (j = 0; j < 9; j++) {
+                    cell = SudokuState.UNITS[line][j];
+
+                    if ((SudokuState.box(cell) != (18 + b)) &&
+                            ((candidates[cell] & bit) != 0)) {
+                        candidates[cell] &= ~bit;
+                        eliminated[cell] |= bit;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    // Unpack a step.
+    static int[] step(int step, int technique) {
+        return new int[] {
+            (step / 10) % 9, (step / 10) / 9, step % 10, technique
+        };
+    }
+}
@@ -0,0 +1,165 @@
+// Lazy enumeration of all solutions of a Sudoku puzzle.
+package sudoku;
+
+import java.util.*;
+
+import java.util.function.*;
+
+import java.util.stream.*;
+
+
+/*
+ * Solutions are produced on demand by a depth-first walk that branches
+ * on the open cell with the fewest choices, so each solution is reached
+ * exactly once and memory is bounded by the depth of the walk.
+ * Splitting hands the shallowest pending subtrees to the new spliterator,
+ * which lets parallel streams divide the search tree between workers.
+ */
+class SudokuSolutions implements Spliterator<SudokuState> {
+    // Pending states, next to explore at the tail.
+    ArrayDeque<SudokuState> pending;
+
+    // Solver supplying deductions.
+    Sudoku solver;
+
+    // Count of expanded states.
+    long expandCount;
+
+    // Constructors.
+    SudokuSolutions(SudokuState state) {
+        this(new ArrayDeque<SudokuState>());
+
+        if (state.isValid()) {
+            pending.addLast(state.cloneState());
+        }
+    }
+
+    SudokuSolutions(ArrayDeque<SudokuState> pending) {
+        this.pending = pending;
+        solver = new Sudoku(Sudoku.DEPTH, false);
+        expandCount = 0;
+    }
+
+    // Stream of solutions.
+    static Stream<SudokuState> stream(SudokuState state, boolean parallel) {
+        return StreamSupport.stream(new SudokuSolutions(state), parallel);
+    }
+
+    // Produce the next solution.
+    public boolean tryAdvance(Consumer<? super SudokuState> action) {
+        SudokuState state;
+
+        while ((state = pending.pollLast()) != null) {
+            if (expand(state)) {
+                action.accept(state);
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Split off the shallowest half of the pending states.
+    public Spliterator<SudokuState> trySplit() {
+        int n;
+        SudokuState state;
+        ArrayDeque<SudokuState> split;
+
+        // Expand a lone state to get something to split.
+        while (pending.size() == 1) {
+            state = pending.pollLast();
+
+            if (expand(state)) {
+                // Keep the solution for this spliterator.
+                pending.addLast(state);
+
+                return null;
+            }
+        }
+
+        if (pending.size() < 2) {
+            return null;
+        }
+
+        split = new ArrayDeque<SudokuState>();
+
+        for (n = pending.size() / 2; n > 0; n--) {
+            split.addLast(pending.pollFirst());
+        }
+
+        return new SudokuSolutions(split);
+    }
+
+    // Size is unknown.
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    public int characteristics() {
+        return DISTINCT | NONNULL | IMMUTABLE;
+    }
+
+    // Expand a state, pushing its children.
+    // Return true if the state is a solution.
+    boolean expand(SudokuState state) {
+        int x;
+        int y;
+        int i;
+        int c;
+        int bx;
+        int by;
+        int bc;
+        SudokuState child;
+
+        expandCount++;
+
+        // Deduce numbers.
+        solver.deduce(state);
+
+        // Check for solution.
+        if (state.gridCount() == 81) {
+            return true;
+        }
+
+        // Find the open cell with the fewest choices.
+        bx = by = -1;
+        bc = 10;
+
+        for (y = 0; (y < 9) && (bc > 0); y++) {
+            for (x = 0; (x < 9) && (bc > 0); x++) {
+                if (state.getNum(x, y) > 0) {
+                    continue;
+                }
+
+                for (i = 1, c = 0; i <= 9; i++) {
+                    if (state.placeOK(x, y, i)) {
+                        c++;
+                    }
+                }
+
+                if (c < bc) {
+                    bx = x;
+                    by = y;
+                    bc = c;
+                }
+            }
+        }
+
+        // Dead end?
+        if (bc == 0) {
+            return false;
+        }
+
+        // Push children so that lower numbers are explored first.
+        for (i = 9; i >= 1; i--) {
+            if (state.placeOK(bx, by, i)) {
+                child = state.cloneState();
+                child.setNum(bx, by, i);
+                pending.addLast(child);
+            }
+        }
+
+        return false;
+    }
+}
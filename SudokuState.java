@@ -13,6 +13,15 @@ class SudokuState {
     // Evaluated value.
     double value;
 
+    // Canonical key under puzzle symmetries, once computed.
+    String key;
+
+    // Cells of each unit: rows, then columns, then boxes.
+    static final int[][] UNITS = units();
+
+    // Cells sharing a row, column or box with each cell.
+    static final int[][] PEERS = peers();
+
     // Constructors.
     SudokuState(char[] grid) {
         this.grid = new char[81];
@@ -43,6 +52,7 @@ class SudokuState {
     // Set number in grid.
     void setNum(int x, int y, int num) {
         grid[x + (y * 9)] = (char) num;
+        key = null;
     }
 
     // How many numbers are in the grid?
@@ -187,29 +197,35 @@ class SudokuState {
     boolean isValid() {
         int x;
         int y;
-        int i;
+        int n;
+        int bit;
+        int[] rows = new int[9];
+        int[] cols = new int[9];
+        int[] boxes = new int[9];
 
         for (y = 0; y < 9; y++) {
             for (x = 0; x < 9; x++) {
-                i = getNum(x, y);
+                n = getNum(x, y);
 
-                if ((i < 0) || (i > 9)) {
+                if ((n < 0) || (n > 9)) {
                     return false;
                 }
 
-                for (i = 1; i <= 9; i++) {
-                    if (numInRow(y, i) > 1) {
-                        return false;
-                    }
+                if (n == 0) {
+                    continue;
+                }
 
-                    if (numInCol(x, i) > 1) {
-                        return false;
-                    }
+                // Each number once per row, column and box.
+                bit = 1 << n;
 
-                    if (numInBox(x, y, i) > 1) {
-                        return false;
-                    }
+                if (((rows[y] | cols[x] | boxes[((y / 3) * 3) + (x / 3)]) &
+                        bit) != 0) {
+                    return false;
                 }
+
+                rows[y] |= bit;
+                cols[x] |= bit;
+                boxes[((y / 3) * 3) + (x / 3)] |= bit;
             }
         }
 
@@ -247,8 +263,61 @@ class SudokuState {
         return state;
     }
 
+    // Grid as a single line of 81 digits in row order.
+    String toLine() {
+        char[] buf = new char[81];
+
+        for (int i = 0; i < 81; i++) {
+            buf[i] = (char) ('0' + grid[i]);
+        }
+
+        return new String(buf);
+    }
+
+    // Parse from a line of 81 cells in row order.
+    // Cells other than 1-9 are empty; return null unless the line,
+    // without surrounding blanks, holds exactly 81 cells.
+    static SudokuState parseLine(String line) {
+        int i;
+        char c;
+        SudokuState state;
+
+        if (line == null) {
+            return null;
+        }
+
+        line = line.trim();
+
+        if (line.length() != 81) {
+            return null;
+        }
+
+        state = new SudokuState();
+
+        for (i = 0; i < 81; i++) {
+            c = line.charAt(i);
+
+            if ((c >= '1') && (c <= '9')) {
+                state.grid[i] = (char) (c - '0');
+            }
+        }
+
+        return state;
+    }
+
     // Load from file.
     void load(String filename) {
+        try {
+            read(filename);
+        } catch (Exception e) {
+            System.err.println("Error loading file " + filename + ":" +
+                e.toString());
+            System.exit(1);
+        }
+    }
+
+    // Read from file, throwing on error.
+    void read(String filename) throws IOException {
         int x;
         int y;
         int n;
@@ -266,6 +335,10 @@ class SudokuState {
                     throw new IOException("Unexpected EOF");
                 }
 
+                if (s.length() < 9) {
+                    throw new IOException("Short line: " + s);
+                }
+
                 s.getChars(0, 9, buf, 0);
 
                 for (x = 0; x < 9; x++) {
@@ -278,10 +351,6 @@ class SudokuState {
                     setNum(x, y, n);
                 }
             }
-        } catch (Exception e) {
-            System.err.println("Error loading file " + filename + ":" +
-                e.toString());
-            System.exit(1);
         } finally {
             try {
                 if (in != null) {
@@ -361,5 +430,67 @@ class SudokuState {
             System.out.println();
         }
     }
+
+    // Units of a cell, as indices into UNITS.
+    static int row(int i) {
+        return i / 9;
+    }
+
+    static int col(int i) {
+        return 9 + (i % 9);
+    }
+
+    static int box(int i) {
+        return 18 + (((i / 27) * 3) + ((i % 9) / 3));
+    }
+
+    // Cell j of a unit.
+    static int unitCell(int unit, int j) {
+        if (unit < 9) {
+            return (unit * 9) + j;
+        }
+
+        if (unit < 18) {
+            return (j * 9) + (unit - 9);
+        }
+
+        unit -= 18;
+
+        return (((unit / 3) * 27) + ((unit % 3) * 3) + ((j / 3) * 9) +
+        (j % 3));
+    }
+
+    // Cells of each unit.
+    static int[][] units() {
+        int[][] units = new int[27][9];
+
+        for (int u = 0; u < 27; u++) {
+            for (int i = 0; i < 9; i++) {
+                units[u][i] = unitCell(u, i);
+            }
+        }
+
+        return units;
+    }
+
+    // Cells sharing a row, column or box with each cell.
+    static int[][] peers() {
+        int cell;
+        int other;
+        int n;
+        int[][] peers = new int[81][20];
+
+        for (cell = 0; cell < 81; cell++) {
+            for (other = n = 0; other < 81; other++) {
+                if ((other != cell) &&
+                        ((row(other) == row(cell)) || (col(other) == col(cell)) ||
+                        (box(other) == box(cell)))) {
+                    peers[cell][n++] = other;
+                }
+            }
+        }
+
+        return peers;
+    }
 }
 ;
@@ -0,0 +1,284 @@
+// Sudoku puzzle symmetries.
+package sudoku;
+
+import java.util.*;
+
+
+/*
+ * Finds the validity-preserving transformations of the grid (transposition,
+ * band and stack permutations, and row and column permutations within them)
+ * that map the puzzle clues onto themselves up to a relabelling of digits.
+ * States are reduced to a canonical form under these transformations with
+ * digits relabelled in order of first appearance, so states equivalent
+ * under the puzzle's symmetries share the same key.
+ *
+ * Column maps are built one column at a time for each row map, checking
+ * each column's clues as it is placed, so most candidates are cut early.
+ * The number of placements tried is capped too, so finding symmetries
+ * stays cheap on puzzles whose clue counts match under many row maps.
+ *
+ * Any transformation preserves whether a state can be completed, and all
+ * states of a search contain the clues, so pruning by key is safe even
+ * when the collection of symmetries is capped.
+ *
+ * A state's key costs up to MAX_SYMMETRIES full relabellings of its grid,
+ * though most maps are abandoned after a few cells. States cache their
+ * key, but every generated child needs one, so when symmetry prunes
+ * little the keys are pure overhead: on the empty grid, best-first search
+ * with symmetry checks expands the same 26 states as without them and
+ * takes two to three times as long.
+ */
+class SudokuSymmetry {
+    // Maximum number of symmetries kept.
+    static final int MAX_SYMMETRIES = 128;
+
+    // Most column placements tried while finding symmetries.
+    static final int MAX_TRIALS = 20000;
+
+    // Permutations of three.
+    static final int[][] PERMUTATIONS = {
+            { 0, 1, 2 },
+            { 0, 2, 1 },
+            { 1, 0, 2 },
+            { 1, 2, 0 },
+            { 2, 0, 1 },
+            { 2, 1, 0 }
+        };
+
+    // Symmetries as maps from grid index to source grid index.
+    Vector maps;
+
+    // Column placements tried.
+    int trials;
+
+    // Constructor.
+    SudokuSymmetry(SudokuState clues) {
+        maps = new Vector();
+        find(clues);
+    }
+
+    // Number of symmetries found.
+    int size() {
+        return maps.size();
+    }
+
+    // Find symmetries of the clues.
+    void find(SudokuState clues) {
+        int t;
+        int r;
+        int[][] lines = lineMaps();
+        int[] rowCount = new int[9];
+        int[] colCount = new int[9];
+        int[] cols = new int[9];
+        boolean[] used = new boolean[9];
+        int[][] label = new int[10][10];
+        int[][] inverse = new int[10][10];
+
+        for (r = 0; r < 9; r++) {
+            rowCount[r] = clues.rowCount(r);
+            colCount[r] = clues.colCount(r);
+        }
+
+        for (t = 0; t < 2; t++) {
+            for (r = 0; r < lines.length; r++) {
+                // Mapped rows must hold as many clues as their targets.
+                if (!countsMatch(lines[r], rowCount,
+                            (t == 0) ? rowCount : colCount)) {
+                    continue;
+                }
+
+                // Build the column maps that fit this row map.
+                if (!findColumns(clues, t == 1, lines[r], cols, used, label,
+                            inverse, 0)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Extend a partial column map one column at a time, checking the
+    // clues of each column as it is placed. Return false once enough
+    // symmetries are found or too many placements have been tried.
+    boolean findColumns(SudokuState clues, boolean transpose, int[] rows,
+        int[] cols, boolean[] used, int[][] label, int[][] inverse, int col) {
+        int i;
+        int s;
+        int a;
+        int b;
+        int first;
+        int[] map;
+        boolean ok;
+
+        if (col == 9) {
+            map = new int[81];
+
+            for (i = 0; i < 81; i++) {
+                if (!transpose) {
+                    map[i] = (rows[i / 9] * 9) + cols[i % 9];
+                } else {
+                    map[i] = (cols[i % 9] * 9) + rows[i / 9];
+                }
+            }
+
+            maps.addElement(map);
+
+            return maps.size() < MAX_SYMMETRIES;
+        }
+
+        if (++trials > MAX_TRIALS) {
+            return false;
+        }
+
+        // Columns stay within stacks: a new stack starts anywhere unused,
+        // later columns follow the stack of the first.
+        first = ((col % 3) == 0) ? 0 : ((cols[col - (col % 3)] / 3) * 3);
+
+        for (s = first; s < (((col % 3) == 0) ? 9 : (first + 3)); s++) {
+            if (used[s] ||
+                    (((col % 3) == 0) &&
+                    (used[(s / 3) * 3] || used[((s / 3) * 3) + 1] ||
+                    used[((s / 3) * 3) + 2]))) {
+                continue;
+            }
+
+            // Digit relabelling so far must hold for the column's clues.
+            System.arraycopy(label[col], 0, label[col + 1], 0, 10);
+            System.arraycopy(inverse[col], 0, inverse[col + 1], 0, 10);
+            ok = true;
+
+            for (i = 0; (i < 9) && ok; i++) {
+                a = clues.grid[col + (i * 9)];
+                b = clues.grid[transpose ? ((s * 9) + rows[i])
+                                         : ((rows[i] * 9) + s)];
+
+                if ((a == 0) != (b == 0)) {
+                    ok = false;
+                } else if (a == 0) {
+                    continue;
+                } else if (label[col + 1][b] == 0) {
+                    if (inverse[col + 1][a] != 0) {
+                        ok = false;
+                    } else {
+                        label[col + 1][b] = a;
+                        inverse[col + 1][a] = b;
+                    }
+                } else if (label[col + 1][b] != a) {
+                    ok = false;
+                }
+            }
+
+            if (!ok) {
+                continue;
+            }
+
+            cols[col] = s;
+            used[s] = true;
+
+            if (!findColumns(clues, transpose, rows, cols, used, label,
+                        inverse, col + 1)) {
+                return false;
+            }
+
+            used[s] = false;
+        }
+
+        return true;
+    }
+
+    // All line permutations keeping lines within their bands.
+    static int[][] lineMaps() {
+        int b;
+        int i;
+        int j;
+        int k;
+        int n;
+        int line;
+        int[][] lines = new int[1296][9];
+
+        n = 0;
+
+        for (b = 0; b < 6; b++) {
+            for (i = 0; i < 6; i++) {
+                for (j = 0; j < 6; j++) {
+                    for (k = 0; k < 6; k++) {
+                        for (line = 0; line < 9; line++) {
+                            lines[n][line] = (PERMUTATIONS[b][line / 3] * 3) +
+                                PERMUTATIONS[(line < 3) ? i
+                                                        : ((line < 6) ? j : k)][line % 3];
+                        }
+
+                        n++;
+                    }
+                }
+            }
+        }
+
+        return lines;
+    }
+
+    // Do line counts match under the given line map?
+    static boolean countsMatch(int[] lines, int[] target, int[] source) {
+        for (int i = 0; i < 9; i++) {
+            if (target[i] != source[lines[i]]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Canonical key of a state.
+    String canonical(SudokuState state) {
+        int i;
+        int j;
+        int n;
+        int next;
+        int cmp;
+        int[] map;
+        int[] label = new int[10];
+        char[] best = null;
+        char[] work = new char[81];
+        char[] swap;
+
+        for (i = 0; i < maps.size(); i++) {
+            map = (int[]) maps.elementAt(i);
+
+            for (j = 0; j < 10; j++) {
+                label[j] = 0;
+            }
+
+            // Relabel digits in order of first appearance,
+            // abandoning maps that are already worse than the best.
+            next = 1;
+            cmp = (best == null) ? -1 : 0;
+
+            for (j = 0; j < 81; j++) {
+                n = state.grid[map[j]];
+
+                if ((n > 0) && (label[n] == 0)) {
+                    label[n] = next++;
+                }
+
+                work[j] = (char) ('0' + label[n]);
+
+                if (cmp == 0) {
+                    if (work[j] < best[j]) {
+                        cmp = -1;
+                    } else if (work[j] > best[j]) {
+                        cmp = 1;
+
+                        break;
+                    }
+                }
+            }
+
+            if (cmp < 0) {
+                swap = best;
+                best = work;
+                work = (swap == null) ? new char[81] : swap;
+            }
+        }
+
+        return new String(best);
+    }
+}
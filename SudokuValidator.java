@@ -0,0 +1,366 @@
+/*
+
+Validate Sudoku solutions against their puzzles.
+
+A solution is correct when every cell holds a number from 1-9,
+every row, column and subgrid holds each number once, and every
+clue of the puzzle is kept. Each failing cell is reported.
+
+Command-line options:
+-puzzle <puzzle file> -solutions <solutions file>
+| -pairs <pairs file>
+[-threads <number of threads>]
+
+The solutions file holds one solution per line as 81 digits in row
+order, as written by Sudoku -enumerate. The pairs file holds one
+puzzle file name and solution file name per line, separated by
+white space, in the grid format of Sudoku load files. Relative names
+are resolved against the directory of the pairs file.
+
+*/
+package sudoku;
+
+import java.io.*;
+
+
+public class SudokuValidator {
+    // Cell failures.
+    static final int EMPTY = 1;
+    static final int CLUE = 2;
+    static final int ROW = 4;
+    static final int COLUMN = 8;
+    static final int BOX = 16;
+
+    // Unit mask with all numbers present.
+    static final int ALL = 0x3fe;
+
+    // Corpus entries validated per batch.
+    static final int BATCH_SIZE = 10000;
+
+    // Command-line options.
+    static final String Usage = "sudokuvalidator -puzzle <puzzle file> -solutions <solutions file>\n\t| -pairs <pairs file> [-threads <number of threads>]";
+
+    // Failures by cell.
+    int[] failures;
+
+    // Numbers seen and repeated in each row, column and box.
+    int[] rowSeen;
+    int[] colSeen;
+    int[] boxSeen;
+    int[] rowRepeat;
+    int[] colRepeat;
+    int[] boxRepeat;
+
+    // Constructor.
+    SudokuValidator() {
+        failures = new int[81];
+        rowSeen = new int[9];
+        colSeen = new int[9];
+        boxSeen = new int[9];
+        rowRepeat = new int[9];
+        colRepeat = new int[9];
+        boxRepeat = new int[9];
+    }
+
+    // Main.
+    public static void main(String[] args) {
+        int i;
+        int threads;
+        String puzzlefile;
+        String solutionsfile;
+        String pairsfile;
+
+        puzzlefile = solutionsfile = pairsfile = null;
+        threads = 1;
+
+        for (i = 0; i < args.length; i++) {
+            if (args[i].equals("-puzzle") && ((i + 1) < args.length)) {
+                puzzlefile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-solutions") && ((i + 1) < args.length)) {
+                solutionsfile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-pairs") && ((i + 1) < args.length)) {
+                pairsfile = args[++i];
+
+                continue;
+            }
+
+            if (args[i].equals("-threads") && ((i + 1) < args.length)) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
+
+                if (threads < 1) {
+                    System.err.println("Invalid threads option");
+                    System.err.println(Usage);
+                    System.exit(1);
+                }
+
+                continue;
+            }
+
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        if ((pairsfile == null) ==
+                ((puzzlefile == null) || (solutionsfile == null))) {
+            System.err.println(Usage);
+            System.exit(1);
+        }
+
+        SudokuState puzzle = null;
+
+        if (pairsfile == null) {
+            puzzle = new SudokuState();
+            puzzle.load(puzzlefile);
+        }
+
+        validateCorpus(puzzle, (pairsfile == null) ? solutionsfile : pairsfile,
+            threads);
+    }
+
+    // Validate a corpus of solutions or puzzle/solution pairs.
+    // Failures are reported in corpus order.
+    static void validateCorpus(final SudokuState puzzle, String filename,
+        int threads) {
+        long count;
+        final long[] failed = new long[1];
+        final File dir = new File(filename).getParentFile();
+
+        count = 0;
+
+        try {
+            count = SudokuCorpus.process(filename, threads, BATCH_SIZE,
+                    new SudokuCorpus.WorkerFactory<String>() {
+                        public SudokuCorpus.Worker<String> newWorker() {
+                            final SudokuValidator validator = new SudokuValidator();
+
+                            return new SudokuCorpus.Worker<String>() {
+                                    public String process(String line) {
+                                        return validator.validateEntry(puzzle,
+                                            dir, line);
+                                    }
+                                };
+                        }
+                    },
+                    new SudokuCorpus.Collector<String>() {
+                        public void collect(long lineNum, String line,
+                            String report) {
+                            if (report != null) {
+                                failed[0]++;
+                                System.out.println("Line " + lineNum + ": " +
+                                    report);
+                            }
+                        }
+                    });
+        } catch (Exception e) {
+            System.err.println("Error validating file " + filename + ":" +
+                e.toString());
+            System.exit(1);
+        }
+
+        System.out.println(count + " solutions checked, " + failed[0] +
+            " failed");
+
+        if (failed[0] > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Validate a corpus entry; pair file names are relative to dir
+    // (null for the current directory).
+    // Return a failure report, or null if the solution is correct.
+    String validateEntry(SudokuState puzzle, File dir, String line) {
+        String[] names;
+        SudokuState solution;
+
+        if (puzzle == null) {
+            names = line.trim().split("\\s+");
+
+            if (names.length != 2) {
+                return "expected puzzle and solution file names";
+            }
+
+            puzzle = new SudokuState();
+            solution = new SudokuState();
+
+            // A bad file fails its entry, not the whole corpus.
+            try {
+                puzzle.read(resolve(dir, names[0]));
+                solution.read(resolve(dir, names[1]));
+            } catch (IOException e) {
+                return "cannot load file: " + e.toString();
+            }
+        } else {
+            if ((solution = SudokuState.parseLine(line)) == null) {
+                return "expected 81 cells";
+            }
+        }
+
+        if (validate(puzzle, solution) == 0) {
+            return null;
+        }
+
+        return describe();
+    }
+
+    // Resolve a pair file name against a directory.
+    static String resolve(File dir, String name) {
+        if ((dir == null) || new File(name).isAbsolute()) {
+            return name;
+        }
+
+        return new File(dir, name).getPath();
+    }
+
+    // Validate a solution against its puzzle.
+    // Return the number of failing cells; see getFailures.
+    int validate(SudokuState puzzle, SudokuState solution) {
+        int i;
+        int x;
+        int y;
+        int b;
+        int n;
+        int bit;
+        int clueMismatch;
+        int bad;
+
+        for (i = 0; i < 9; i++) {
+            rowSeen[i] = colSeen[i] = boxSeen[i] = 0;
+            rowRepeat[i] = colRepeat[i] = boxRepeat[i] = 0;
+        }
+
+        // Gather unit masks.
+        clueMismatch = 0;
+
+        for (i = 0; i < 81; i++) {
+            n = solution.grid[i];
+
+            if ((puzzle.grid[i] != 0) && (puzzle.grid[i] != n)) {
+                clueMismatch++;
+            }
+
+            if ((n < 1) || (n > 9)) {
+                continue;
+            }
+
+            x = i % 9;
+            y = i / 9;
+            b = ((y / 3) * 3) + (x / 3);
+            bit = 1 << n;
+            rowRepeat[y] |= (rowSeen[y] & bit);
+            rowSeen[y] |= bit;
+            colRepeat[x] |= (colSeen[x] & bit);
+            colSeen[x] |= bit;
+            boxRepeat[b] |= (boxSeen[b] & bit);
+            boxSeen[b] |= bit;
+        }
+
+        // Fast path: every unit complete and every clue kept.
+        for (i = 0; (i < 9) && (clueMismatch == 0); i++) {
+            if ((rowSeen[i] & colSeen[i] & boxSeen[i]) != ALL) {
+                break;
+            }
+        }
+
+        if (i == 9) {
+            for (i = 0; i < 81; i++) {
+                failures[i] = 0;
+            }
+
+            return 0;
+        }
+
+        // Find the failing cells.
+        bad = 0;
+
+        for (i = 0; i < 81; i++) {
+            n = solution.grid[i];
+            x = i % 9;
+            y = i / 9;
+            b = ((y / 3) * 3) + (x / 3);
+            failures[i] = 0;
+
+            if ((puzzle.grid[i] != 0) && (puzzle.grid[i] != n)) {
+                failures[i] |= CLUE;
+            }
+
+            if ((n < 1) || (n > 9)) {
+                failures[i] |= EMPTY;
+            } else {
+                bit = 1 << n;
+
+                if ((rowRepeat[y] & bit) != 0) {
+                    failures[i] |= ROW;
+                }
+
+                if ((colRepeat[x] & bit) != 0) {
+                    failures[i] |= COLUMN;
+                }
+
+                if ((boxRepeat[b] & bit) != 0) {
+                    failures[i] |= BOX;
+                }
+            }
+
+            if (failures[i] != 0) {
+                bad++;
+            }
+        }
+
+        return bad;
+    }
+
+    // Failures by cell (index x + (y * 9)) from the last validation.
+    int[] getFailures() {
+        return failures;
+    }
+
+    // Describe the failing cells from the last validation.
+    String describe() {
+        int i;
+        StringBuffer buf = new StringBuffer();
+
+        for (i = 0; i < 81; i++) {
+            if (failures[i] == 0) {
+                continue;
+            }
+
+            if (buf.length() > 0) {
+                buf.append("; ");
+            }
+
+            buf.append("cell " + (i % 9) + "," + (i / 9) + ":");
+            append(buf, failures[i], EMPTY, " empty");
+            append(buf, failures[i], CLUE, " clue changed");
+            append(buf, failures[i], ROW, " repeated in row");
+            append(buf, failures[i], COLUMN, " repeated in column");
+            append(buf, failures[i], BOX, " repeated in box");
+        }
+
+        return buf.toString();
+    }
+
+    // Append a failure reason if flagged, after any earlier one.
+    static void append(StringBuffer buf, int failure, int flag, String reason) {
+        if ((failure & flag) == 0) {
+            return;
+        }
+
+        if (buf.charAt(buf.length() - 1) != ':') {
+            buf.append(',');
+        }
+
+        buf.append(reason);
+    }
+}